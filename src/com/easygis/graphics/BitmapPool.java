@@ -0,0 +1,150 @@
+package com.easygis.graphics;
+
+import java.util.ArrayList;
+
+import android.graphics.Bitmap;
+import android.support.v4.util.LongSparseArray;
+
+/**
+ * Pool of mutable bitmaps for {@link android.graphics.BitmapFactory.Options#inBitmap}.<br>
+ * Bitmaps are grouped by width, height and config. Bitmap which doesn't fit
+ * into pool is recycled.
+ * 
+ * @author jiangzhen
+ * 
+ */
+public class BitmapPool {
+
+	private LongSparseArray<ArrayList<Bitmap>> mFree = new LongSparseArray<ArrayList<Bitmap>>();
+
+	private int mMaxSize;
+
+	private int mSize;
+
+	private int mHitCount;
+
+	private int mMissCount;
+
+	/**
+	 * 
+	 * @param maxSize
+	 *            maximal bytes of pooled bitmaps
+	 */
+	public BitmapPool(int maxSize) {
+		this.mMaxSize = maxSize;
+	}
+
+	/**
+	 * Take bitmap from pool.
+	 * 
+	 * @param width
+	 * @param height
+	 * @param config
+	 * @return null if no bitmap matches
+	 */
+	public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+		ArrayList<Bitmap> list = mFree.get(key(width, height, config));
+		if (list == null || list.isEmpty()) {
+			mMissCount++;
+			return null;
+		}
+		Bitmap bitmap = list.remove(list.size() - 1);
+		mSize -= bitmap.getByteCount();
+		mHitCount++;
+		return bitmap;
+	}
+
+	/**
+	 * Give bitmap to pool. Caller must not use bitmap any more.
+	 * 
+	 * @param bitmap
+	 */
+	public void put(Bitmap bitmap) {
+		if (bitmap == null || bitmap.isRecycled()) {
+			return;
+		}
+		synchronized (this) {
+			int size = bitmap.getByteCount();
+			if (bitmap.isMutable() && bitmap.getConfig() != null
+					&& mSize + size <= mMaxSize) {
+				long key = key(bitmap.getWidth(), bitmap.getHeight(),
+						bitmap.getConfig());
+				ArrayList<Bitmap> list = mFree.get(key);
+				if (list == null) {
+					list = new ArrayList<Bitmap>();
+					mFree.put(key, list);
+				}
+				list.add(bitmap);
+				mSize += size;
+				return;
+			}
+		}
+		bitmap.recycle();
+	}
+
+	/**
+	 * Recycle all pooled bitmaps
+	 */
+	public void clear() {
+		trimToSize(0);
+	}
+
+	/**
+	 * Recycle pooled bitmaps until pool holds at most size bytes.
+	 * 
+	 * @param size
+	 *            bytes kept in pool
+	 */
+	public void trimToSize(int size) {
+		ArrayList<Bitmap> recycled = new ArrayList<Bitmap>();
+		synchronized (this) {
+			for (int i = mFree.size() - 1; i >= 0 && mSize > size; i--) {
+				ArrayList<Bitmap> list = mFree.valueAt(i);
+				while (!list.isEmpty() && mSize > size) {
+					Bitmap bitmap = list.remove(list.size() - 1);
+					mSize -= bitmap.getByteCount();
+					recycled.add(bitmap);
+				}
+				if (list.isEmpty()) {
+					mFree.removeAt(i);
+				}
+			}
+		}
+		for (Bitmap bitmap : recycled) {
+			bitmap.recycle();
+		}
+	}
+
+	/**
+	 * Sets maximal bytes of pool and recycles bitmaps if needed.
+	 * 
+	 * @param maxSize
+	 */
+	public void resize(int maxSize) {
+		synchronized (this) {
+			mMaxSize = maxSize;
+		}
+		trimToSize(maxSize);
+	}
+
+	public synchronized int size() {
+		return mSize;
+	}
+
+	public synchronized int maxSize() {
+		return mMaxSize;
+	}
+
+	public synchronized int hitCount() {
+		return mHitCount;
+	}
+
+	public synchronized int missCount() {
+		return mMissCount;
+	}
+
+	private static long key(int width, int height, Bitmap.Config config) {
+		return ((long) width << 32) | ((long) (height & 0xFFFFFF) << 8)
+				| config.ordinal();
+	}
+}
@@ -24,6 +24,11 @@ public abstract class EMap implements MapOperation {
 	
 	protected double mResolution;
 	
+	/**
+	 * Zoom levels allowed beyond deepest level of map, tiles of deepest level are scaled
+	 */
+	protected int mOverzoomLevels = 2;
+	
 	protected CoordinatorTranslation mTranslation;
 	
 	/**
@@ -113,6 +118,64 @@ public abstract class EMap implements MapOperation {
 		return mZoom;
 	}
 	
+	
+	/**
+	 * Get deepest zoom level which map can show, including overzoom levels.
+	 * @return maximal zoom level
+	 */
+	public int getMaxZoom() {
+		return mMapInfo.mSupportedLevels.length - 1 + mOverzoomLevels;
+	}
+	
+	
+	/**
+	 * Set how many zoom levels map can show beyond deepest level of tiles.
+	 * @param levels  count of levels, 0 disables overzoom
+	 */
+	public void setOverzoomLevels(int levels) {
+		this.mOverzoomLevels = Math.max(0, levels);
+	}
+	
+	/**
+	 * Move bounds by offset in meters, bounds is kept inside full extent.
+	 * @param bounds  bounds to move
+	 * @param mx  offset of x in meters, bounds moves to opposite direction
+	 * @param my  offset of y in meters, bounds moves to opposite direction
+	 */
+	protected void offsetBounds(Bounds bounds, double mx, double my) {
+		if (bounds.right - mx > this.mMapInfo.mFullExtent.right) {
+			double offsetM = bounds.right
+					- this.mMapInfo.mFullExtent.right;
+			bounds.right = this.mMapInfo.mFullExtent.right;
+			bounds.left -= offsetM;
+		} else if (bounds.left - mx < this.mMapInfo.mFullExtent.left) {
+			double offsetM = bounds.left
+					- this.mMapInfo.mFullExtent.left;
+			bounds.left = this.mMapInfo.mFullExtent.left;
+			bounds.right -= offsetM;
+		} else {
+			bounds.left -= mx;
+			bounds.right -= mx;
+		}
+
+		if (bounds.bottom - my >= this.mMapInfo.mFullExtent.bottom) {
+
+			double offsetM = bounds.bottom
+					- this.mMapInfo.mFullExtent.bottom;
+			bounds.top -= offsetM;
+			bounds.bottom = this.mMapInfo.mFullExtent.bottom;
+
+		} else if (bounds.top - my <= this.mMapInfo.mFullExtent.top) {
+			double offsetM = bounds.top
+					- this.mMapInfo.mFullExtent.top;
+			bounds.top = this.mMapInfo.mFullExtent.top;
+			bounds.bottom -= offsetM;
+		} else {
+			bounds.top -= my;
+			bounds.bottom -= my;
+		}
+	}
+	
 	/**
 	 * Add new layer to current map.<br>
 	 *  Layer index from start 0.
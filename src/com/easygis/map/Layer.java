@@ -28,4 +28,24 @@ public abstract class Layer extends View {
 	
 	protected abstract void scale(float scale);
 	
+	
+	/**
+	 * Called when map starts to fling. Map moves along straight line from start to end.
+	 * @param start  bounds when fling starts
+	 * @param end  predicted bounds when fling stops
+	 * @param zoom  zoom level
+	 * @param velocity  initial velocity in pixels per second
+	 */
+	protected void onFlingStart(Bounds start, Bounds end, int zoom, float velocity) {
+		
+	}
+	
+	
+	/**
+	 * Called when fling is finished or interrupted.
+	 */
+	protected void onFlingEnd() {
+		
+	}
+	
 }
@@ -254,7 +254,7 @@ public class MapView extends ViewGroup implements OnTouchListener {
 	}
 
 	private void doDoubleTapZoomIn(int x, int y) {
-		if (mEMap.mZoom == mEMap.mMapInfo.mSupportedLevels.length - 1) {
+		if (mEMap.mZoom >= mEMap.getMaxZoom()) {
 			EGISLog.i("max level reached");
 			return;
 		}
@@ -335,6 +335,9 @@ public class MapView extends ViewGroup implements OnTouchListener {
 			mScroller.fling(initialX, initialY, initialXVelocity,
 					initialYVelocity, 0, Integer.MAX_VALUE, 0,
 					Integer.MAX_VALUE);
+			publishFlingPath(initialX - mScroller.getFinalX(), initialY
+					- mScroller.getFinalY(), (float) Math.hypot(
+					initialXVelocity, initialYVelocity));
 			post(this);
 
 		}
@@ -342,6 +345,35 @@ public class MapView extends ViewGroup implements OnTouchListener {
 		void endFling() {
 			updateMode(OPMode.NONE);
 			removeCallbacks(this);
+			notifyFlingEnd();
+		}
+
+		/**
+		 * Tell layers where fling stops, so tiles there can be loaded first.
+		 * 
+		 * @param deltaX
+		 *            total pixel offset of fling, same direction as
+		 *            {@link EMap#translate}
+		 * @param deltaY
+		 * @param velocity
+		 */
+		private void publishFlingPath(int deltaX, int deltaY, float velocity) {
+			Bounds start = new Bounds(mEMap.mBounds);
+			Bounds end = new Bounds(mEMap.mBounds);
+			mEMap.offsetBounds(end, mEMap.mResolution * deltaX,
+					mEMap.mResolution * deltaY);
+			int count = getChildCount();
+			for (int i = 0; i < count; i++) {
+				((Layer) getChildAt(i)).onFlingStart(start, end, mEMap.mZoom,
+						velocity);
+			}
+		}
+
+		private void notifyFlingEnd() {
+			int count = getChildCount();
+			for (int i = 0; i < count; i++) {
+				((Layer) getChildAt(i)).onFlingEnd();
+			}
 		}
 
 		@Override
@@ -360,6 +392,7 @@ public class MapView extends ViewGroup implements OnTouchListener {
 				post(this);
 			} else {
 				updateMode(OPMode.NONE);
+				notifyFlingEnd();
 			}
 
 			 mLastFlingY = y;
@@ -414,7 +447,7 @@ public class MapView extends ViewGroup implements OnTouchListener {
 
 		@Override
 		public void zoomIn() {
-			if (mEMap.mZoom < mEMap.mMapInfo.mSupportedLevels.length - 1) {
+			if (mEMap.mZoom < mEMap.getMaxZoom()) {
 				Bounds bounds = new Bounds();
 				bounds.left = mBounds.left / 2;
 				bounds.top = mBounds.top / 2;
@@ -526,37 +559,7 @@ public class MapView extends ViewGroup implements OnTouchListener {
 			}
 
 			EGISLog.i("olad bounds:" + this.mBounds);
-			if (this.mBounds.right - mx > this.mMapInfo.mFullExtent.right) {
-				double offsetM = this.mBounds.right
-						- this.mMapInfo.mFullExtent.right;
-				this.mBounds.right = this.mMapInfo.mFullExtent.right;
-				this.mBounds.left -= offsetM;
-			} else if (this.mBounds.left - mx < this.mMapInfo.mFullExtent.left) {
-				double offsetM = this.mBounds.left
-						- this.mMapInfo.mFullExtent.left;
-				this.mBounds.left = this.mMapInfo.mFullExtent.left;
-				this.mBounds.right -= offsetM;
-			} else {
-				this.mBounds.left -= mx;
-				this.mBounds.right -= mx;
-			}
-
-			if (this.mBounds.bottom - my >= this.mMapInfo.mFullExtent.bottom) {
-
-				double offsetM = this.mBounds.bottom
-						- this.mMapInfo.mFullExtent.bottom;
-				this.mBounds.top -= offsetM;
-				this.mBounds.bottom = this.mMapInfo.mFullExtent.bottom;
-
-			} else if (this.mBounds.top - my <= this.mMapInfo.mFullExtent.top) {
-				double offsetM = this.mBounds.top
-						- this.mMapInfo.mFullExtent.top;
-				this.mBounds.top = this.mMapInfo.mFullExtent.top;
-				this.mBounds.bottom -= offsetM;
-			} else {
-				this.mBounds.top -= my;
-				this.mBounds.bottom -= my;
-			}
+			offsetBounds(this.mBounds, mx, my);
 
 			EGISLog.i("new bounds:" + this.mBounds);
 			Bounds newBounds = new Bounds(mBounds);
@@ -15,9 +15,117 @@ public final class Tile {
 	public double mScale;
 
 	public Object mTileData;
+
+	/**
+	 * Tile is loaded by prefetch and not requested yet
+	 */
+	public boolean isPrefetched;
+
+	/**
+	 * Count of holders of mTileData, creator holds first reference.
+	 */
+	private int mRefCount = 1;
+
+	/**
+	 * Count of references held by caches besides creator reference.
+	 */
+	private int mCacheRefCount;
+
+	private Recycler mRecycler;
+
+	/**
+	 * Take a reference of tile data before use it outside loader.<br>
+	 * mTileData is valid until {@link #release()} is called.
+	 * 
+	 * @return false if tile data is already released and maybe reused by
+	 *         loader, then this tile can't be used any more
+	 */
+	public synchronized boolean acquire() {
+		if (mRefCount <= 0) {
+			return false;
+		}
+		mRefCount++;
+		return true;
+	}
+
+	/**
+	 * Give back reference taken by {@link #acquire()} or creator.<br>
+	 * When the last reference is released, tile data is handed to recycler.
+	 */
+	public void release() {
+		synchronized (this) {
+			if (mRefCount <= 0) {
+				return;
+			}
+			mRefCount--;
+			if (mRefCount > 0) {
+				return;
+			}
+		}
+		if (mRecycler != null) {
+			mRecycler.recycle(this);
+		}
+	}
+
+	/**
+	 * 
+	 * @return true if all references are released
+	 */
+	public synchronized boolean isReleased() {
+		return mRefCount <= 0;
+	}
+
+	/**
+	 * Take a reference for a cache which keeps tile it didn't create, such as
+	 * tile written back from a slower loader. Cache references don't make
+	 * tile in use.
+	 * 
+	 * @return false if tile data is already released
+	 */
+	public synchronized boolean acquireForCache() {
+		if (!acquire()) {
+			return false;
+		}
+		mCacheRefCount++;
+		return true;
+	}
+	
+	/**
+	 * Give back reference of a cache, creator reference belongs to the cache
+	 * tile is first put in.
+	 */
+	public void releaseFromCache() {
+		synchronized (this) {
+			if (mCacheRefCount > 0) {
+				mCacheRefCount--;
+			}
+		}
+		release();
+	}
+	
+	/**
+	 * 
+	 * @return true if someone besides caches holds a reference taken by
+	 *         {@link #acquire()}
+	 */
+	public synchronized boolean isInUse() {
+		return mRefCount > mCacheRefCount + 1;
+	}
 	
 	/**
-	 * Mark mTileData is dirty or recycled
+	 * Set recycler which takes tile data back when last reference is released.
+	 * 
+	 * @param recycler
 	 */
-	public boolean isDirty;
+	public void setRecycler(Recycler recycler) {
+		this.mRecycler = recycler;
+	}
+
+	/**
+	 * Take back tile data when no one holds it.
+	 */
+	public interface Recycler {
+
+		public void recycle(Tile tile);
+	}
 }
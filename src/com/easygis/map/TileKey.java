@@ -0,0 +1,89 @@
+package com.easygis.map;
+
+/**
+ * Tile identity packed into one primitive long.<br>
+ * <ul>
+ * Layout from high bits to low bits: zoom 8 bits, row 28 bits, column 28
+ * bits. So keys are ordered by zoom, row then column.
+ * </ul>
+ * <ul>
+ * Row and column must be in [0, 2^28), zoom in [0, 256).
+ * </ul>
+ *
+ * @author jiangzhen
+ *
+ */
+public final class TileKey {
+
+	private static final int COORD_BITS = 28;
+
+	private static final long COORD_MASK = (1L << COORD_BITS) - 1;
+
+	private static final int ZOOM_SHIFT = COORD_BITS * 2;
+
+	private TileKey() {
+	}
+
+	/**
+	 * Pack tile identity to key
+	 *
+	 * @param row
+	 *            row of tile
+	 * @param col
+	 *            column of tile
+	 * @param zoom
+	 *            zoom level
+	 * @return packed key
+	 */
+	public static long pack(int row, int col, int zoom) {
+		return ((long) (zoom & 0xFF) << ZOOM_SHIFT)
+				| ((row & COORD_MASK) << COORD_BITS) | (col & COORD_MASK);
+	}
+
+	/**
+	 *
+	 * @param key
+	 *            packed key
+	 * @return row of tile
+	 */
+	public static int row(long key) {
+		return (int) ((key >>> COORD_BITS) & COORD_MASK);
+	}
+
+	/**
+	 *
+	 * @param key
+	 *            packed key
+	 * @return column of tile
+	 */
+	public static int col(long key) {
+		return (int) (key & COORD_MASK);
+	}
+
+	/**
+	 *
+	 * @param key
+	 *            packed key
+	 * @return zoom level
+	 */
+	public static int zoom(long key) {
+		return (int) (key >>> ZOOM_SHIFT);
+	}
+
+	/**
+	 * Check tile coordinate can be packed
+	 *
+	 * @param row
+	 * @param col
+	 * @param zoom
+	 * @return
+	 */
+	public static boolean isValid(int row, int col, int zoom) {
+		return row >= 0 && col >= 0 && row <= COORD_MASK && col <= COORD_MASK
+				&& zoom >= 0 && zoom <= 0xFF;
+	}
+
+	public static String toString(long key) {
+		return "[" + row(key) + "_" + col(key) + "_" + zoom(key) + "]";
+	}
+}
@@ -0,0 +1,73 @@
+package com.easygis.map;
+
+/**
+ * Range of tiles at one zoom level, start and end are inclusive.
+ * 
+ * @author jiangzhen
+ * 
+ */
+public class TileRange {
+
+	public int zoom;
+
+	public int startRow;
+
+	public int startCol;
+
+	public int endRow;
+
+	public int endCol;
+
+	public TileRange() {
+	}
+
+	public TileRange(int zoom, int startRow, int startCol, int endRow,
+			int endCol) {
+		this.zoom = zoom;
+		this.startRow = startRow;
+		this.startCol = startCol;
+		this.endRow = endRow;
+		this.endCol = endCol;
+	}
+
+	public TileRange(TileRange copy) {
+		this(copy.zoom, copy.startRow, copy.startCol, copy.endRow, copy.endCol);
+	}
+
+	/**
+	 * 
+	 * @param row
+	 * @param col
+	 * @param zoom
+	 * @return true if tile is in this range
+	 */
+	public boolean contains(int row, int col, int zoom) {
+		return zoom == this.zoom && row >= startRow && row <= endRow
+				&& col >= startCol && col <= endCol;
+	}
+
+	/**
+	 * 
+	 * @return count of tiles in range
+	 */
+	public int count() {
+		return Math.max(0, endRow - startRow + 1)
+				* Math.max(0, endCol - startCol + 1);
+	}
+
+	/**
+	 * 
+	 * @param row
+	 * @param col
+	 * @return row-major index of tile in range
+	 */
+	public int indexOf(int row, int col) {
+		return (row - startRow) * (endCol - startCol + 1) + col - startCol;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + startRow + "," + startCol + " - " + endRow + "," + endCol
+				+ " @" + zoom + "]";
+	}
+}
@@ -0,0 +1,19 @@
+package com.easygis.map.layer;
+
+import com.easygis.map.service.TileMemoryBudget;
+
+/**
+ * Tile loader whose memory caches are sized by a {@link TileMemoryBudget}.
+ * {@link TileLayer} gives it budget of device when it's attached to window.
+ * 
+ * @author jiangzhen
+ *
+ */
+public interface BudgetedTileDataLoader extends TileLayerDataLoader {
+
+	/**
+	 * Resize memory caches of loader.
+	 * @param budget  memory budget, see {@link TileMemoryBudget#fromContext(android.content.Context)}
+	 */
+	public void setMemoryBudget(TileMemoryBudget budget);
+}
@@ -8,4 +8,12 @@ public interface LayerDataLoader {
 	
 	
 	public void unLoad();
+	
+	
+	/**
+	 * Release memory by level of {@link android.content.ComponentCallbacks2#onTrimMemory(int)}.<br>
+	 * Loader stays usable, released data is loaded again when requested.
+	 * @param level  TRIM_MEMORY_* level
+	 */
+	public void trimMemory(int level);
 }
@@ -10,7 +10,8 @@ import com.easygis.map.Tile;
 public interface TileDataLoaderCallback {
 
 	/**
-	 * 
+	 * Called from loader worker thread when tile data is loaded.<br>
+	 * tile is null if loader doesn't have data for this tile.
 	 * @param row
 	 * @param col
 	 * @param zoom
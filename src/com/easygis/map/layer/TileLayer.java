@@ -1,13 +1,21 @@
 package com.easygis.map.layer;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
 import android.os.Handler;
 import android.os.HandlerThread;
 
@@ -16,10 +24,31 @@ import com.easygis.map.EMap;
 import com.easygis.map.Layer;
 import com.easygis.map.MapInfo;
 import com.easygis.map.Tile;
+import com.easygis.map.TileRange;
+import com.easygis.map.service.TileMemoryBudget;
 import com.easygis.util.CoordinatorTranslation;
 import com.easygis.util.EGISLog;
 
 public class TileLayer extends Layer {
+
+	/**
+	 * Duration of one frame in milliseconds
+	 */
+	private static final int FRAME_TIME_MS = 16;
+
+	/**
+	 * How many zoom levels up a placeholder is searched
+	 */
+	private static final int MAX_PLACEHOLDER_LEVELS = 4;
+
+	/**
+	 * Pixels of back buffer beyond each edge of view
+	 */
+	private static final int BUFFER_MARGIN = 64;
+
+	private static final int FRESH_FRAME = 4;
+
+	private static final int BUFFER_INDEX_MASK = 3;
 	
 	private EMap mMap;
 
@@ -27,12 +56,106 @@ public class TileLayer extends Layer {
 
 	private List<PixelTile> mCurrentTiles = new ArrayList<PixelTile>();
 
-	private Bitmap mBufferedBitmap;
+	/**
+	 * Front, ready and back buffers of frames.<br>
+	 * Each buffer is owned by one side at any time: UI draws mFrontBuffer,
+	 * worker draws into mBackBuffer, finished frame waits in mReadyBuffer.
+	 * Sides only swap their buffer with mReadyBuffer, so a buffer UI may
+	 * draw is never written or recycled.
+	 */
+	private final Bitmap[] mBuffers = new Bitmap[3];
+
+	/**
+	 * Index of ready buffer, FRESH_FRAME is set until UI takes it
+	 */
+	private final AtomicInteger mReadyBuffer = new AtomicInteger(1);
+
+	/**
+	 * Only used on UI thread
+	 */
+	private int mFrontBuffer = 0;
+
+	/**
+	 * Only used by worker
+	 */
+	private int mBackBuffer = 2;
+
+	/**
+	 * Buffer of last published frame, worker reads it while UI may draw it
+	 */
+	private int mLastFrame = -1;
+
+	/**
+	 * Requested size of buffers, guarded by mLock
+	 */
+	private int mBufferWidth;
+	private int mBufferHeight;
 
 	private Bitmap mBackgroundBitmap;
 
+	/**
+	 * World pixel and zoom of last frame left top, and rect of it which
+	 * shows its grid, only used by worker
+	 */
+	private long mBufferLeft;
+	private long mBufferTop;
+	private int mBufferZoom = -1;
+	private Rect mValidRect = new Rect();
+
+	private Canvas mWorkerCanvas = new Canvas();
+
+	private Paint mTilePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+	private Paint mScrollPaint = new Paint();
+
 	private Bounds mBounds;
 
+	/**
+	 * Tile grid of current bounds, guarded by mLock
+	 */
+	private TileGrid mGrid;
+
+	/**
+	 * Previous grid and its time, only used on message thread
+	 */
+	private TileGrid mLastGrid;
+	private long mLastGridTime;
+
+	/**
+	 * Last update only drew cached tiles, only used on message thread
+	 */
+	private boolean isLoadSkipped;
+
+	private volatile boolean isFlinging;
+
+	/**
+	 * Time of first bounds update, 0 until layer gets bounds
+	 */
+	private volatile long mFirstBoundsTime;
+
+	/**
+	 * Milliseconds from first bounds update to first frame with all visible
+	 * tiles, -1 until it happens
+	 */
+	private volatile long mTimeToFirstFullFrame = -1;
+
+	/**
+	 * Count of visible slots of mGrid, guarded by mLock
+	 */
+	private int mGridSlots;
+
+	/**
+	 * Tile grid where current fling stops
+	 */
+	private volatile TileGrid mFlingTarget;
+
+	/**
+	 * Count of tile rings around bounds loaded in background
+	 */
+	private int mPrefetchRing = 1;
+
+	private boolean isCrossZoomPrefetch = true;
+
 	private Object mLock = new Object();
 
 	private WorkerState mState = WorkerState.NONE;
@@ -46,6 +169,11 @@ public class TileLayer extends Layer {
 
 	private Paint paint = new Paint();
 
+	{
+		// Shifted pixels replace scratch content
+		mScrollPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+	}
+
 	public TileLayer(Context context, EMap map) {
 		super(context);
 		updateMapInfo(map);
@@ -68,17 +196,27 @@ public class TileLayer extends Layer {
 	@Override
 	protected void onAttachedToWindow() {
 		super.onAttachedToWindow();
+		if (mTileLoader instanceof BudgetedTileDataLoader) {
+			// Caches follow memory class of device, not heap of process
+			((BudgetedTileDataLoader) mTileLoader)
+					.setMemoryBudget(TileMemoryBudget.fromContext(getContext()));
+		}
 		startRender();
+		getContext().getApplicationContext().registerComponentCallbacks(
+				mMemoryCallbacks);
 	}
 
 	@Override
 	protected void onDetachedFromWindow() {
 		super.onDetachedFromWindow();
+		getContext().getApplicationContext().unregisterComponentCallbacks(
+				mMemoryCallbacks);
 		stopRender();
-		if (mBufferedBitmap != null) {
-			EGISLog.i(mBufferedBitmap + " is recycled");
-			mBufferedBitmap.recycle();
+		synchronized (mLock) {
+			releaseTiles(mCurrentTiles);
 		}
+		// Buffers are recycled by worker when it stops, UI doesn't draw them
+		// any more
 	}
 
 	@Override
@@ -95,8 +233,14 @@ public class TileLayer extends Layer {
 		super.onDraw(canvas);
 		int savePoint = canvas.save();
 		canvas.scale(scale, scale);
-		if (mBufferedBitmap != null) {
-			canvas.drawBitmap(mBufferedBitmap, 0, 0, paint);
+		if ((mReadyBuffer.get() & FRESH_FRAME) != 0) {
+			// Take latest frame, give current front back to worker
+			mFrontBuffer = mReadyBuffer.getAndSet(mFrontBuffer)
+					& BUFFER_INDEX_MASK;
+		}
+		Bitmap front = mBuffers[mFrontBuffer];
+		if (front != null) {
+			canvas.drawBitmap(front, -BUFFER_MARGIN, -BUFFER_MARGIN, paint);
 		}
 		canvas.restoreToCount(savePoint);
 	}
@@ -104,8 +248,14 @@ public class TileLayer extends Layer {
 	@Override
 	public void updateBounds(Bounds bounds) {
 		this.mBounds = bounds;
-		if (mMessageHandler != null) {
-			mMessageHandler.post(mUpdateBoundsRunnable);
+		if (mFirstBoundsTime == 0) {
+			mFirstBoundsTime = System.currentTimeMillis();
+		}
+		Handler handler = mMessageHandler;
+		if (handler != null) {
+			// Coalesce pending updates, runnable always reads latest bounds
+			handler.removeCallbacks(mUpdateBoundsRunnable);
+			handler.post(mUpdateBoundsRunnable);
 		}
 	}
 
@@ -116,18 +266,462 @@ public class TileLayer extends Layer {
 	
 	
 
+	@Override
+	protected void onFlingStart(Bounds start, final Bounds end, final int zoom,
+			float velocity) {
+		isFlinging = true;
+		Handler handler = mMessageHandler;
+		if (handler == null) {
+			return;
+		}
+		// Load tiles where fling stops before tiles along the path
+		handler.postAtFrontOfQueue(new Runnable() {
+
+			@Override
+			public void run() {
+				if (zoom > maxDataZoom()) {
+					return;
+				}
+				TileGrid target = computeGrid(end, zoom);
+				mFlingTarget = target;
+				TileGrid visible = mLastGrid;
+				// Fling speed is measured from next update
+				mLastGrid = null;
+				if (visible != null) {
+					mTileLoader.updateViewport(visible, target);
+				}
+				MapInfo.ZoomInfo level = mMap.getMapInfo().mSupportedLevels[zoom];
+				for (int i = Math.max(0, target.startRow); i <= Math.min(
+						target.endRow, level.mEndRow); i++) {
+					for (int j = Math.max(0, target.startCol); j <= Math.min(
+							target.endCol, level.mEndCol); j++) {
+						mTileLoader.getTileAsync(i, j, zoom, null);
+					}
+				}
+			}
+
+		});
+	}
+
+	@Override
+	protected void onFlingEnd() {
+		isFlinging = false;
+		mFlingTarget = null;
+	}
+
+	/**
+	 * Get time from first bounds update to first frame where all visible
+	 * tiles are real tiles, not placeholders.
+	 * 
+	 * @return milliseconds, -1 if layer hasn't drawn a full frame yet
+	 */
+	public long getTimeToFirstFullFrame() {
+		return mTimeToFirstFullFrame;
+	}
+
+	/**
+	 * Record time to first full frame, must hold mLock
+	 */
+	private void checkFirstFullFrame() {
+		if (mTimeToFirstFullFrame >= 0 || mGridSlots == 0
+				|| mFirstBoundsTime == 0) {
+			return;
+		}
+		int filled = 0;
+		for (PixelTile ptile : mCurrentTiles) {
+			if (!ptile.isPlaceholder) {
+				filled++;
+			}
+		}
+		if (filled >= mGridSlots) {
+			mTimeToFirstFullFrame = System.currentTimeMillis()
+					- mFirstBoundsTime;
+			EGISLog.i("time to first full frame: " + mTimeToFirstFullFrame
+					+ "ms");
+		}
+	}
+
+	/**
+	 * Set count of tile rings around visible tiles which are loaded in
+	 * background. 0 disables neighbor prefetch.
+	 * 
+	 * @param ring
+	 */
+	public void setPrefetchRing(int ring) {
+		this.mPrefetchRing = Math.max(0, ring);
+	}
+
+	/**
+	 * Enable or disable background load of tiles covering current bounds one
+	 * zoom level up and down.
+	 * 
+	 * @param enable
+	 */
+	public void setCrossZoomPrefetch(boolean enable) {
+		this.isCrossZoomPrefetch = enable;
+	}
+
 	@Override
 	protected void scale(float sc) {
 		scale *= sc;
 	}
 
-	private void drawTile(List<PixelTile> tileList, Bitmap target) {
-		Canvas c = new Canvas(target);
-		Paint p = new Paint();
-		for (PixelTile ptile : tileList) {
-			c.drawBitmap((Bitmap) ptile.tile.mTileData, ptile.offsetX,
-					ptile.offsetY, p);
-			postInvalidate();
+	/**
+	 * Draw next frame into back buffer from snapshot of tiles, without
+	 * mLock.<br>
+	 * Buffer covers view and BUFFER_MARGIN around it. Frame starts from last
+	 * published frame shifted by pan delta, like scrolling a terminal, then
+	 * only exposed strips and slots whose tiles changed are drawn. With three
+	 * buffers the back buffer is two publishes old, none of its own pixels
+	 * are trusted.
+	 * 
+	 * @return back buffer holding the frame
+	 */
+	private Bitmap render(TileGrid grid, List<PixelTile> tiles, int width,
+			int height) {
+		Bitmap target = backBuffer(width, height);
+		Bitmap last = mLastFrame < 0 ? null : mBuffers[mLastFrame];
+		Rect valid = mValidRect;
+		Canvas c = mWorkerCanvas;
+		c.setBitmap(target);
+		if (grid == null) {
+			target.eraseColor(Color.TRANSPARENT);
+			valid.setEmpty();
+			return target;
+		}
+		int tileWidth = (int) mMap.getMapInfo().mTileWidth;
+		int tileHeight = (int) mMap.getMapInfo().mTileHeight;
+		// World pixel of buffer left top
+		long left = grid.startCol * (long) tileWidth - grid.offsetX
+				- BUFFER_MARGIN;
+		long top = grid.startRow * (long) tileHeight - grid.offsetY
+				- BUFFER_MARGIN;
+		long dx = left - mBufferLeft;
+		long dy = top - mBufferTop;
+		boolean keep = last != null && last.getWidth() == width
+				&& last.getHeight() == height && mBufferZoom == grid.zoom
+				&& !valid.isEmpty() && Math.abs(dx) < width
+				&& Math.abs(dy) < height;
+		if (keep) {
+			// Target holds the frame published before last one, older than
+			// last, so only shifted area is overwritten here; everything
+			// outside it is redrawn or cleared below
+			c.drawBitmap(last, -dx, -dy, mScrollPaint);
+			valid.offset((int) -dx, (int) -dy);
+			keep = valid.intersect(0, 0, width, height);
+		}
+		if (!keep) {
+			target.eraseColor(Color.TRANSPARENT);
+			valid.setEmpty();
+		}
+		mBufferLeft = left;
+		mBufferTop = top;
+		mBufferZoom = grid.zoom;
+
+		// Area tiles of grid can cover
+		Rect covered = new Rect(grid.offsetX + BUFFER_MARGIN, grid.offsetY
+				+ BUFFER_MARGIN, grid.offsetX + BUFFER_MARGIN
+				+ (grid.endCol - grid.startCol + 1) * tileWidth, grid.offsetY
+				+ BUFFER_MARGIN + (grid.endRow - grid.startRow + 1)
+				* tileHeight);
+		if (!covered.intersect(0, 0, width, height)) {
+			target.eraseColor(Color.TRANSPARENT);
+			valid.setEmpty();
+			return target;
+		}
+		if (keep) {
+			// Older frame left in target may hold tiles where grid has none
+			clearOutside(c, covered, width, height);
+		}
+		Rect kept = new Rect(valid);
+		if (!keep || !kept.intersect(covered)) {
+			drawRegion(c, tiles, covered);
+		} else {
+			// Exposed strips above, below, left and right of kept pixels
+			drawRegion(c, tiles, new Rect(covered.left, covered.top,
+					covered.right, kept.top));
+			drawRegion(c, tiles, new Rect(covered.left, kept.bottom,
+					covered.right, covered.bottom));
+			drawRegion(c, tiles, new Rect(covered.left, kept.top, kept.left,
+					kept.bottom));
+			drawRegion(c, tiles, new Rect(kept.right, kept.top,
+					covered.right, kept.bottom));
+			// Slots of kept pixels which got new tiles
+			Rect slot = new Rect();
+			for (PixelTile ptile : tiles) {
+				if (ptile.isDrawn) {
+					continue;
+				}
+				int x = grid.offsetX + BUFFER_MARGIN
+						+ (ptile.col - grid.startCol) * tileWidth;
+				int y = grid.offsetY + BUFFER_MARGIN
+						+ (ptile.row - grid.startRow) * tileHeight;
+				slot.set(x, y, x + tileWidth, y + tileHeight);
+				if (slot.intersect(kept)) {
+					drawRegion(c, tiles, slot);
+				}
+				for (PixelTile other : tiles) {
+					if (other.row == ptile.row && other.col == ptile.col) {
+						other.isDrawn = true;
+					}
+				}
+			}
+		}
+		valid.set(covered);
+		return target;
+	}
+
+	/**
+	 * Back buffer of requested size, created or resized by worker which owns
+	 * it. Buffers of old size are never recycled while UI may draw them.
+	 */
+	private Bitmap backBuffer(int width, int height) {
+		Bitmap bitmap = mBuffers[mBackBuffer];
+		if (bitmap != null && bitmap.getWidth() == width
+				&& bitmap.getHeight() == height) {
+			return bitmap;
+		}
+		if (bitmap != null
+				&& android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.KITKAT
+				&& bitmap.getAllocationByteCount() >= width * height * 2) {
+			bitmap.reconfigure(width, height, Bitmap.Config.ARGB_4444);
+		} else {
+			if (bitmap != null) {
+				bitmap.recycle();
+			}
+			bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_4444);
+		}
+		EGISLog.i("reconfig bitmap [" + width + "," + height + "]......"
+				+ bitmap);
+		mBuffers[mBackBuffer] = bitmap;
+		return bitmap;
+	}
+
+	/**
+	 * Hand finished back buffer to UI, worker gets the buffer UI gave up or
+	 * the frame UI never took.
+	 */
+	private void publish() {
+		mLastFrame = mBackBuffer;
+		mBackBuffer = mReadyBuffer.getAndSet(mBackBuffer | FRESH_FRAME)
+				& BUFFER_INDEX_MASK;
+	}
+
+	/**
+	 * Copy tiles to draw and take references of them, so message thread may
+	 * release tiles while worker draws. Must hold mLock.
+	 */
+	private List<PixelTile> snapshotTiles() {
+		List<PixelTile> tiles = new ArrayList<PixelTile>(mCurrentTiles.size());
+		for (PixelTile ptile : mCurrentTiles) {
+			if (ptile.tile.acquire()) {
+				tiles.add(new PixelTile(ptile));
+				ptile.isDrawn = true;
+			}
+		}
+		return tiles;
+	}
+
+	/**
+	 * Clear bands of buffer around region
+	 */
+	private void clearOutside(Canvas c, Rect region, int width, int height) {
+		clearRegion(c, new Rect(0, 0, width, region.top));
+		clearRegion(c, new Rect(0, region.bottom, width, height));
+		clearRegion(c, new Rect(0, region.top, region.left, region.bottom));
+		clearRegion(c, new Rect(region.right, region.top, width, region.bottom));
+	}
+
+	private void clearRegion(Canvas c, Rect region) {
+		if (region.isEmpty()) {
+			return;
+		}
+		int savePoint = c.save();
+		c.clipRect(region);
+		c.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+		c.restoreToCount(savePoint);
+	}
+
+	/**
+	 * Clear region of buffer and draw tiles overlapping it
+	 */
+	private void drawRegion(Canvas c, List<PixelTile> tiles, Rect region) {
+		if (region.isEmpty()) {
+			return;
+		}
+		int tileWidth = (int) mMap.getMapInfo().mTileWidth;
+		int tileHeight = (int) mMap.getMapInfo().mTileHeight;
+		int savePoint = c.save();
+		c.clipRect(region);
+		c.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+		Rect dst = new Rect();
+		for (PixelTile ptile : tiles) {
+			Bitmap bitmap = (Bitmap) ptile.tile.mTileData;
+			int width = ptile.width > 0 ? ptile.width : tileWidth;
+			int height = ptile.height > 0 ? ptile.height : tileHeight;
+			int x = ptile.offsetX + BUFFER_MARGIN;
+			int y = ptile.offsetY + BUFFER_MARGIN;
+			if (!region.intersects(x, y, x + width, y + height)) {
+				continue;
+			}
+			if (ptile.src == null && bitmap.getWidth() == width
+					&& bitmap.getHeight() == height) {
+				c.drawBitmap(bitmap, x, y, mTilePaint);
+			} else {
+				// Subsampled tile or placeholder, scale to slot
+				dst.set(x, y, x + width, y + height);
+				c.drawBitmap(bitmap, ptile.src, dst, mTilePaint);
+			}
+		}
+		c.restoreToCount(savePoint);
+	}
+
+	/**
+	 * Fill missing slot from memory only: part of nearest cached ancestor,
+	 * otherwise cached tiles of next zoom level scaled into quadrants.
+	 * 
+	 * @param list
+	 *            placeholders are added to this list
+	 * @return true if any placeholder is added
+	 */
+	private boolean addPlaceholder(List<PixelTile> list, int row, int col,
+			int zoom, int offsetX, int offsetY) {
+		int tileWidth = (int) mMap.getMapInfo().mTileWidth;
+		int tileHeight = (int) mMap.getMapInfo().mTileHeight;
+		for (int d = 1; d <= MAX_PLACEHOLDER_LEVELS && zoom - d >= 0; d++) {
+			Tile parent = mTileLoader.getCachedTile(row >> d, col >> d, zoom
+					- d);
+			if (parent == null || !parent.acquire()) {
+				continue;
+			}
+			PixelTile ptile = cropOf(parent, row, col, d, offsetX, offsetY);
+			if (ptile == null) {
+				parent.release();
+				break;
+			}
+			list.add(ptile);
+			return true;
+		}
+		if (zoom + 1 >= mMap.getMapInfo().mSupportedLevels.length) {
+			return false;
+		}
+		boolean added = false;
+		for (int k = 0; k < 4; k++) {
+			Tile child = mTileLoader.getCachedTile(row * 2 + (k >> 1), col
+					* 2 + (k & 1), zoom + 1);
+			if (child == null || !child.acquire()) {
+				continue;
+			}
+			PixelTile ptile = new PixelTile(offsetX + (k & 1) * tileWidth / 2,
+					offsetY + (k >> 1) * tileHeight / 2, child);
+			ptile.width = tileWidth / 2;
+			ptile.height = tileHeight / 2;
+			ptile.row = row;
+			ptile.col = col;
+			ptile.isPlaceholder = true;
+			list.add(ptile);
+			added = true;
+		}
+		return added;
+	}
+
+	/**
+	 * Part of acquired ancestor tile which covers slot, d levels below it.
+	 * 
+	 * @return null if part is smaller than one pixel
+	 */
+	private PixelTile cropOf(Tile ancestor, int row, int col, int d,
+			int offsetX, int offsetY) {
+		Bitmap bitmap = (Bitmap) ancestor.mTileData;
+		int partWidth = bitmap.getWidth() >> d;
+		int partHeight = bitmap.getHeight() >> d;
+		if (partWidth == 0 || partHeight == 0) {
+			return null;
+		}
+		int mask = (1 << d) - 1;
+		int left = (col & mask) * partWidth;
+		int top = (row & mask) * partHeight;
+		PixelTile ptile = new PixelTile(offsetX, offsetY, ancestor);
+		ptile.src = new Rect(left, top, left + partWidth, top + partHeight);
+		ptile.row = row;
+		ptile.col = col;
+		ptile.isPlaceholder = true;
+		return ptile;
+	}
+
+	/**
+	 * Get tile from cache and take reference of it, otherwise tile is
+	 * delivered to mTileDataLoadedCallback once decoded.
+	 */
+	private Tile acquireTile(int row, int col, int zoom) {
+		Tile tile = mTileLoader.getTileAsync(row, col, zoom,
+				mTileDataLoadedCallback);
+		if (tile == null) {
+			return null;
+		}
+		if (!tile.acquire()) {
+			// Evicted between lookup and acquire, load it again
+			tile = mTileLoader.getTileAsync(row, col, zoom,
+					mTileDataLoadedCallback);
+			if (tile == null || !tile.acquire()) {
+				return null;
+			}
+		}
+		return tile;
+	}
+
+	/**
+	 * Release references of tiles and clear list, must hold mLock so worker
+	 * doesn't draw released tiles.
+	 */
+	private void releaseTiles(List<PixelTile> tiles) {
+		for (PixelTile ptile : tiles) {
+			ptile.tile.release();
+		}
+		tiles.clear();
+	}
+
+	/**
+	 * Warm loader cache for next pan and zoom: rings of tiles around visible
+	 * tiles first, then tiles of parent and child zoom levels.
+	 */
+	private void prefetch(int zoom, int startRow, int startCol, int endRow,
+			int endCol) {
+		MapInfo.ZoomInfo[] levels = mMap.getMapInfo().mSupportedLevels;
+		for (int d = 1; d <= mPrefetchRing; d++) {
+			for (int i = startRow - d; i <= endRow + d; i++) {
+				for (int j = startCol - d; j <= endCol + d; j++) {
+					if (i == startRow - d || i == endRow + d
+							|| j == startCol - d || j == endCol + d) {
+						prefetchTile(levels, i, j, zoom);
+					}
+				}
+			}
+		}
+		if (!isCrossZoomPrefetch) {
+			return;
+		}
+		if (zoom > 0) {
+			for (int i = startRow >> 1; i <= endRow >> 1; i++) {
+				for (int j = startCol >> 1; j <= endCol >> 1; j++) {
+					prefetchTile(levels, i, j, zoom - 1);
+				}
+			}
+		}
+		if (zoom + 1 < levels.length) {
+			for (int i = startRow * 2; i <= endRow * 2 + 1; i++) {
+				for (int j = startCol * 2; j <= endCol * 2 + 1; j++) {
+					prefetchTile(levels, i, j, zoom + 1);
+				}
+			}
+		}
+	}
+
+	private void prefetchTile(MapInfo.ZoomInfo[] levels, int row, int col,
+			int zoom) {
+		if (row >= 0 && col >= 0 && row <= levels[zoom].mEndRow
+				&& col <= levels[zoom].mEndCol) {
+			mTileLoader.prefetchTile(row, col, zoom);
 		}
 	}
 
@@ -160,8 +754,91 @@ public class TileLayer extends Layer {
 	private TileDataLoaderCallback mTileDataLoadedCallback = new TileDataLoaderCallback() {
 
 		@Override
-		public void tileLoadedNotification(int row, int col, int zoom, Tile tile) {
+		public void tileLoadedNotification(final int row, final int col,
+				final int zoom, final Tile tile) {
+			if (tile == null || tile.mTileData == null) {
+				EGISLog.e("row : " + row + "  col:" + col + "  bitmap is null");
+				return;
+			}
+			Handler handler = mMessageHandler;
+			if (handler == null) {
+				return;
+			}
+			handler.post(new Runnable() {
+
+				@Override
+				public void run() {
+					synchronized (mLock) {
+						TileGrid grid = mGrid;
+						if (grid == null) {
+							return;
+						}
+						if (!grid.contains(row, col, zoom)) {
+							if (zoom == maxDataZoom() && grid.zoom > zoom) {
+								// Overzoomed tile arrives, crop it by next update
+								Handler handler = mMessageHandler;
+								if (handler != null) {
+									handler.removeCallbacks(mUpdateBoundsRunnable);
+									handler.post(mUpdateBoundsRunnable);
+								}
+							}
+							return;
+						}
+						for (PixelTile ptile : mCurrentTiles) {
+							if (ptile.tile == tile && !ptile.isPlaceholder) {
+								return;
+							}
+						}
+						if (!tile.acquire()) {
+							// Already evicted, request again at next bounds update
+							return;
+						}
+						// Real tile replaces placeholders of its slot
+						Iterator<PixelTile> it = mCurrentTiles.iterator();
+						while (it.hasNext()) {
+							PixelTile ptile = it.next();
+							if (ptile.isPlaceholder && ptile.row == row
+									&& ptile.col == col) {
+								ptile.tile.release();
+								it.remove();
+							}
+						}
+						int tileWidth = (int) mMap.getMapInfo().mTileWidth;
+						int tileHeight = (int) mMap.getMapInfo().mTileHeight;
+						mCurrentTiles.add(new PixelTile(grid.offsetX
+								+ (col - grid.startCol) * tileWidth,
+								grid.offsetY + (row - grid.startRow)
+										* tileHeight, tile));
+						checkFirstFullFrame();
+						mState = WorkerState.RENDER;
+						mLock.notify();
+					}
+				}
+
+			});
+		}
+
+	};
+
+	/**
+	 * Forward memory pressure to tile loader
+	 */
+	private ComponentCallbacks2 mMemoryCallbacks = new ComponentCallbacks2() {
+
+		@Override
+		public void onTrimMemory(int level) {
+			if (mTileLoader != null) {
+				mTileLoader.trimMemory(level);
+			}
+		}
 
+		@Override
+		public void onLowMemory() {
+			onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+		}
+
+		@Override
+		public void onConfigurationChanged(Configuration newConfig) {
 		}
 
 	};
@@ -171,13 +848,19 @@ public class TileLayer extends Layer {
 		@Override
 		public void run() {
 			while (true) {
+				TileGrid grid;
+				List<PixelTile> tiles;
+				int width;
+				int height;
 				synchronized (mLock) {
 					if (mState == WorkerState.DIED) {
 						break;
 					}
 
 					if (mState == WorkerState.NONE
-							|| mState == WorkerState.DONE) {
+							|| mState == WorkerState.DONE
+							|| (mState == WorkerState.RENDER && mBufferWidth <= 0)) {
+						// Until state changes or size is known
 						try {
 							mLock.wait();
 						} catch (InterruptedException e) {
@@ -185,100 +868,188 @@ public class TileLayer extends Layer {
 						}
 					}
 
-					if (mState != WorkerState.RENDER) {
+					if (mState != WorkerState.RENDER || mBufferWidth <= 0) {
 						continue;
 					}
-					// Until bitmap is not null
-					while (mBufferedBitmap == null) {
-						try {
-							mLock.wait(100);
-						} catch (InterruptedException e) {
-							e.printStackTrace();
-						}
-					}
-					drawTile(mCurrentTiles, mBufferedBitmap);
+					grid = mGrid;
+					tiles = snapshotTiles();
+					width = mBufferWidth;
+					height = mBufferHeight;
+					// Updates while drawing render again
 					mState = WorkerState.DONE;
-
+				}
+				try {
+					render(grid, tiles, width, height);
+					publish();
+				} finally {
+					for (PixelTile ptile : tiles) {
+						ptile.tile.release();
+					}
+				}
+				postInvalidate();
+			}
+			// UI doesn't draw detached layer, all buffers are worker's
+			for (int i = 0; i < mBuffers.length; i++) {
+				if (mBuffers[i] != null) {
+					EGISLog.i(mBuffers[i] + " is recycled");
+					mBuffers[i].recycle();
+					mBuffers[i] = null;
 				}
 			}
 		}
 
 	};
 
+	/**
+	 * 
+	 * @return deepest zoom level which has tiles
+	 */
+	private int maxDataZoom() {
+		return mMap.getMapInfo().mSupportedLevels.length - 1;
+	}
+
+	/**
+	 * Compute visible tile range and pixel offset of first tile
+	 */
+	private TileGrid computeGrid(Bounds bounds, int zoom) {
+		int tileWidth = (int)mMap.getMapInfo().mTileWidth;
+		int tileHeight = (int) mMap.getMapInfo().mTileHeight;
+		int[] topLeft = mTranslation.translateMetersToTile(bounds.left,
+				bounds.top, zoom);
+		int[] bottomRight = mTranslation.translateMetersToTile(
+				bounds.right, bounds.bottom, zoom);
+		TileGrid grid = new TileGrid();
+		grid.zoom = zoom;
+		grid.startRow = topLeft[1];
+		grid.endRow = bottomRight[1];
+		grid.startCol = topLeft[0];
+		grid.endCol = bottomRight[0];
+
+		double[] pixels = mTranslation.translateMetersToPixels(
+				bounds.left, bounds.top, zoom);
+		grid.pixelX = pixels[0];
+		grid.pixelY = pixels[1];
+		grid.offsetX = (int) -(pixels[0] - grid.startCol * tileWidth);
+		grid.offsetY = (int) -(pixels[1] - grid.startRow * tileHeight);
+
+		if (grid.offsetX > 0) {
+			grid.startCol -= 1;
+			grid.offsetX -= tileWidth;
+		} else if (grid.offsetX < 0 && Math.abs(grid.offsetX) > (int)tileWidth) {
+			grid.startCol += 1;
+			grid.offsetX += tileWidth;
+		}
+
+		if (grid.offsetY > 0) {
+			grid.startRow -= 1;
+			grid.offsetY -= tileHeight;
+		} else if (grid.offsetY < 0 && Math.abs(grid.offsetY) > (int)tileHeight) {
+			grid.startRow += 1;
+			grid.offsetY += tileHeight;
+		}
+		return grid;
+	}
+
+	/**
+	 * Estimate how long a tile entering view now stays on screen during fling.
+	 * 
+	 * @return milliseconds, Long.MAX_VALUE if map is not flinging
+	 */
+	private long estimateVisibleTime(TileGrid grid, long now) {
+		TileGrid last = mLastGrid;
+		long elapsed = now - mLastGridTime;
+		mLastGrid = grid;
+		mLastGridTime = now;
+		if (!isFlinging || last == null || last.zoom != grid.zoom
+				|| elapsed <= 0) {
+			return Long.MAX_VALUE;
+		}
+		double speedX = Math.abs(grid.pixelX - last.pixelX) / elapsed;
+		double speedY = Math.abs(grid.pixelY - last.pixelY) / elapsed;
+		long visible = Long.MAX_VALUE;
+		if (speedX > 0) {
+			visible = Math.min(visible, (long) ((getWidth() + mMap
+					.getMapInfo().mTileWidth) / speedX));
+		}
+		if (speedY > 0) {
+			visible = Math.min(visible, (long) ((getHeight() + mMap
+					.getMapInfo().mTileHeight) / speedY));
+		}
+		return visible;
+	}
+
 	private Runnable mUpdateBoundsRunnable = new Runnable() {
 
 		@Override
 		public void run() {
 			int zoom =  mMap.getZoom();
-			int tileWidth = (int)mMap.getMapInfo().mTileWidth;
-			int tileHeight = (int) mMap.getMapInfo().mTileHeight;
 			long start = System.currentTimeMillis();
-			int[] topLeft = mTranslation.translateMetersToTile(mBounds.left,
-					mBounds.top, zoom);
-			int[] bottomRight = mTranslation.translateMetersToTile(
-					mBounds.right, mBounds.bottom, zoom);
-			int startRow = topLeft[1];
-			int endRow = bottomRight[1];
-			int startCol = topLeft[0];
-			int endCol = bottomRight[0];
-
-			double[] pixels = mTranslation.translateMetersToPixels(
-					mBounds.left, mBounds.top, zoom);
-			int offsetX = (int) -(pixels[0] - startCol * tileWidth);
-			int offsetY = (int) -(pixels[1] - startRow * tileHeight);
-
-			EGISLog.i(startRow + "," + startCol + " - " + endRow + "," + endCol
-					+ "   offsetX:" + offsetX + "  offsetY:" + offsetY
-					+ "  px:" + pixels[0] + "  py:" + pixels[1]);
-			if (offsetX > 0) {
-				startCol -= 1;
-				offsetX -= tileWidth;
-			} else if (offsetX < 0 && Math.abs(offsetX) > (int)tileWidth) {
-				startCol += 1;
-				offsetX += tileWidth;
-			}
-
-			if (offsetY > 0) {
-				startRow -= 1;
-				offsetY -= tileHeight;
-			} else if (offsetY < 0 && Math.abs(offsetY) > (int)tileHeight) {
-				startRow += 1;
-				offsetY += tileHeight;
-			}
+			TileGrid grid = computeGrid(mBounds, zoom);
 
-			
 			long start0 = System.currentTimeMillis();
-			EGISLog.i("After adjust:" + startRow + "," + startCol + " - "
-					+ endRow + "," + endCol + "   offsetX:" + offsetX
-					+ "  offsetY:" + offsetY);
+			EGISLog.i("After adjust:" + grid.startRow + "," + grid.startCol
+					+ " - " + grid.endRow + "," + grid.endCol + "   offsetX:"
+					+ grid.offsetX + "  offsetY:" + grid.offsetY);
+			// Tiles crossing the screen within one frame of a fling are only
+			// drawn from cache, destination tiles are loaded instead
+			boolean skipLoad = estimateVisibleTime(grid, start) < FRAME_TIME_MS;
+			TileGrid target = mFlingTarget;
+			// Beyond deepest level, tiles of deepest level are cropped
+			int dataZoom = Math.min(zoom, maxDataZoom());
+			int d = zoom - dataZoom;
+			TileRange visible = d == 0 ? grid : new TileRange(dataZoom,
+					grid.startRow >> d, grid.startCol >> d, grid.endRow >> d,
+					grid.endCol >> d);
+			// Reorder queued loads and drop loads which left the view
+			mTileLoader.updateViewport(visible, d == 0 ? target : null);
+			MapInfo.ZoomInfo level = mMap.getMapInfo().mSupportedLevels[dataZoom];
+			TileRange range = new TileRange(dataZoom, Math.max(0,
+					visible.startRow), Math.max(0, visible.startCol), Math.min(
+					visible.endRow, level.mEndRow), Math.min(visible.endCol,
+					level.mEndCol));
+			// Message thread is the only writer of mGrid and mCurrentTiles
+			TileGrid last = mGrid;
+			boolean incremental = d == 0 && last != null && last.zoom == zoom;
+			boolean moved = !incremental || last.startRow != grid.startRow
+					|| last.startCol != grid.startCol
+					|| last.endRow != grid.endRow || last.endCol != grid.endCol;
 			List<PixelTile> list = new ArrayList<PixelTile>();
-			int maxRow = mMap.getMapInfo().mSupportedLevels[zoom].mEndRow;
-			int maxCol = mMap.getMapInfo().mSupportedLevels[zoom].mEndCol;
-			for (int i = startRow, indexI = 0; i <= endRow; i++, indexI++) {
-				for (int j = startCol, indexJ = 0; j <= endCol; j++, indexJ++) {
-					int tileOffsetX = offsetX + indexJ
-							* (int) tileWidth;
-					int tileOffsetY = offsetY + indexI
-							* (int) tileHeight;
-					if (j <= maxCol && i <= maxRow) {
-						Tile tile = mTileLoader.getTile(i, j, zoom);
-						if (tile != null && tile.mTileData != null) {
-							list.add(new PixelTile(tileOffsetX,
-									tileOffsetY, tile));
-						} else {
-							EGISLog.e("row : " + i + "  col:" + j
-									+ "  bitmap is null");
-						}
-					}
+			boolean[] filled = null;
+			if (incremental) {
+				// Slots skipped by fast fling are loaded once it slows down
+				filled = fillChangedSlots(list, grid, last, range, moved
+						|| (isLoadSkipped && !skipLoad), skipLoad, target);
+			} else if (range.count() > 0) {
+				// One bulk request, loader reads missing tiles in storage order
+				Tile[] cached = null;
+				if (d > 0 || !skipLoad) {
+					cached = mTileLoader.getTiles(range, mTileDataLoadedCallback);
+				}
+				if (d == 0) {
+					fillSlots(list, grid, range, cached, null, skipLoad,
+							target);
+				} else {
+					addOverzoomedSlots(list, grid, level, d);
 				}
 			}
 			
-			
-			
+			isLoadSkipped = skipLoad;
+			if (!isFlinging && moved) {
+				prefetch(dataZoom, visible.startRow, visible.startCol,
+						visible.endRow, visible.endCol);
+			}
+
 			long start1 = System.currentTimeMillis();
 			synchronized (mLock) {
-				mCurrentTiles.clear();
+				mGrid = grid;
+				mGridSlots = d == 0 ? range.count() : 0;
+				if (incremental) {
+					shiftTiles(grid, last, filled);
+				} else {
+					releaseTiles(mCurrentTiles);
+				}
 				mCurrentTiles.addAll(list);
+				checkFirstFullFrame();
 				mState = WorkerState.RENDER;
 				mLock.notify();
 			}
@@ -288,34 +1059,179 @@ public class TileLayer extends Layer {
 
 	};
 
+	/**
+	 * Overzoomed slots are cropped from cached tiles of deepest level
+	 */
+	private void addOverzoomedSlots(List<PixelTile> list, TileGrid grid,
+			MapInfo.ZoomInfo level, int d) {
+		int tileWidth = (int) mMap.getMapInfo().mTileWidth;
+		int tileHeight = (int) mMap.getMapInfo().mTileHeight;
+		int maxRow = ((level.mEndRow + 1) << d) - 1;
+		int maxCol = ((level.mEndCol + 1) << d) - 1;
+		for (int i = Math.max(0, grid.startRow); i <= Math.min(grid.endRow,
+				maxRow); i++) {
+			for (int j = Math.max(0, grid.startCol); j <= Math.min(
+					grid.endCol, maxCol); j++) {
+				addPlaceholder(list, i, j, grid.zoom, grid.offsetX
+						+ (j - grid.startCol) * tileWidth, grid.offsetY
+						+ (i - grid.startRow) * tileHeight);
+			}
+		}
+	}
+
+	/**
+	 * Fill slots of grid entering view since last grid. Tiles of other slots
+	 * are kept, those still waiting for tile are requested again if retry is
+	 * true, such as grid moved by a tile.
+	 * 
+	 * @return slots of grid which got real tile, indexed by
+	 *         {@link TileRange#indexOf(int, int)} of grid
+	 */
+	private boolean[] fillChangedSlots(List<PixelTile> list, TileGrid grid,
+			TileGrid last, TileRange range, boolean retry, boolean skipLoad,
+			TileGrid target) {
+		int zoom = grid.zoom;
+		boolean[] filled = new boolean[grid.count()];
+		// Slots already showing real tile or placeholder
+		byte[] shown = new byte[filled.length];
+		for (PixelTile ptile : mCurrentTiles) {
+			if (grid.contains(ptile.row, ptile.col, zoom)) {
+				int index = grid.indexOf(ptile.row, ptile.col);
+				shown[index] = (byte) Math.max(shown[index],
+						ptile.isPlaceholder ? 1 : 2);
+			}
+		}
+		int keptStartRow = Math.max(range.startRow, last.startRow);
+		int keptEndRow = Math.min(range.endRow, last.endRow);
+		int keptStartCol = Math.max(range.startCol, last.startCol);
+		int keptEndCol = Math.min(range.endCol, last.endCol);
+		// Entering slots: bands above and below last grid, then left and
+		// right of it, each one bulk request
+		TileRange[] entering = new TileRange[] {
+				new TileRange(zoom, range.startRow, range.startCol, Math.min(
+						range.endRow, last.startRow - 1), range.endCol),
+				new TileRange(zoom, Math.max(range.startRow, last.endRow + 1),
+						range.startCol, range.endRow, range.endCol),
+				new TileRange(zoom, keptStartRow, range.startCol, keptEndRow,
+						Math.min(range.endCol, last.startCol - 1)),
+				new TileRange(zoom, keptStartRow, Math.max(range.startCol,
+						last.endCol + 1), keptEndRow, range.endCol) };
+		for (TileRange band : entering) {
+			if (band.count() == 0) {
+				continue;
+			}
+			Tile[] cached = skipLoad ? null : mTileLoader.getTiles(band,
+					mTileDataLoadedCallback);
+			fillSlots(list, grid, band, cached, filled, skipLoad, target);
+		}
+		if (!retry) {
+			return filled;
+		}
+		// Kept slots still waiting for tile, a failed or evicted load is
+		// requested again
+		for (int i = keptStartRow; i <= keptEndRow; i++) {
+			for (int j = keptStartCol; j <= keptEndCol; j++) {
+				int index = grid.indexOf(i, j);
+				if (shown[index] == 2) {
+					continue;
+				}
+				fillSlot(list, grid, i, j, null, null, filled, shown[index] == 0,
+						skipLoad, target);
+			}
+		}
+		return filled;
+	}
+
+	/**
+	 * Fill slots of range, cached tiles are result of
+	 * {@link TileLayerDataLoader#getTiles(TileRange, TileDataLoaderCallback)}
+	 * of range, null if it isn't requested.
+	 */
+	private void fillSlots(List<PixelTile> list, TileGrid grid,
+			TileRange range, Tile[] cached, boolean[] filled, boolean skipLoad,
+			TileGrid target) {
+		for (int i = range.startRow; i <= range.endRow; i++) {
+			for (int j = range.startCol; j <= range.endCol; j++) {
+				fillSlot(list, grid, i, j, range, cached, filled, true,
+						skipLoad, target);
+			}
+		}
+	}
+
+	/**
+	 * Acquire tile of one slot, or add placeholders if it isn't loaded.
+	 */
+	private void fillSlot(List<PixelTile> list, TileGrid grid, int row,
+			int col, TileRange range, Tile[] cached, boolean[] filled,
+			boolean placeholder, boolean skipLoad, TileGrid target) {
+		int zoom = grid.zoom;
+		int offsetX = grid.offsetX + (col - grid.startCol)
+				* (int) mMap.getMapInfo().mTileWidth;
+		int offsetY = grid.offsetY + (row - grid.startRow)
+				* (int) mMap.getMapInfo().mTileHeight;
+		Tile tile;
+		if (skipLoad && (target == null || !target.contains(row, col, zoom))) {
+			tile = mTileLoader.getCachedTile(row, col, zoom);
+			if (tile != null && !tile.acquire()) {
+				tile = null;
+			}
+		} else if (cached == null) {
+			// Fling target while skipping loads, or slot requested alone
+			tile = acquireTile(row, col, zoom);
+		} else {
+			tile = cached[range.indexOf(row, col)];
+			if (tile != null && !tile.acquire()) {
+				// Evicted after lookup, request it again
+				tile = acquireTile(row, col, zoom);
+			}
+		}
+		if (tile != null) {
+			list.add(new PixelTile(offsetX, offsetY, tile));
+			if (filled != null) {
+				filled[grid.indexOf(row, col)] = true;
+			}
+		} else if (placeholder) {
+			addPlaceholder(list, row, col, zoom, offsetX, offsetY);
+		}
+	}
+
+	/**
+	 * Move kept tiles to their slots of new grid, release tiles which left
+	 * it and placeholders of slots which got real tile. Must hold mLock.
+	 */
+	private void shiftTiles(TileGrid grid, TileGrid last, boolean[] filled) {
+		int dx = grid.offsetX - last.offsetX - (grid.startCol - last.startCol)
+				* (int) mMap.getMapInfo().mTileWidth;
+		int dy = grid.offsetY - last.offsetY - (grid.startRow - last.startRow)
+				* (int) mMap.getMapInfo().mTileHeight;
+		Iterator<PixelTile> it = mCurrentTiles.iterator();
+		while (it.hasNext()) {
+			PixelTile ptile = it.next();
+			if (!grid.contains(ptile.row, ptile.col, grid.zoom)
+					|| (ptile.isPlaceholder && filled[grid.indexOf(ptile.row,
+							ptile.col)])) {
+				ptile.tile.release();
+				it.remove();
+			} else {
+				ptile.offsetX += dx;
+				ptile.offsetY += dy;
+			}
+		}
+	}
+
 	private Runnable mConfigRunnable = new Runnable() {
 
 		@Override
 		public void run() {
+			// Worker resizes its buffers, never blocks behind a draw
 			synchronized (mLock) {
 				mMessageHandler.removeCallbacks(mConfigRunnable);
 				mMessageHandler.removeCallbacks(mUpdateBoundsRunnable);
 
-				int width = getWidth();
-				int height = getHeight();
-				if (mBufferedBitmap == null) {
-					mBufferedBitmap = Bitmap.createBitmap(width, height,
-							Bitmap.Config.ARGB_4444);
-				} else {
-					if (mBufferedBitmap.getWidth() != width
-							|| mBufferedBitmap.getHeight() != height) {
-						if (android.os.Build.VERSION_CODES.KITKAT >= android.os.Build.VERSION.SDK_INT) {
-							mBufferedBitmap.reconfigure(width, height,
-									Bitmap.Config.ARGB_4444);
-						} else {
-							mBufferedBitmap.recycle();
-							mBufferedBitmap = Bitmap.createBitmap(width,
-									height, Bitmap.Config.ARGB_4444);
-						}
-					}
-				}
-
-				EGISLog.i("reconfig bitmap ["+width+","+height+"]......" + mBufferedBitmap);
+				mBufferWidth = getWidth() + BUFFER_MARGIN * 2;
+				mBufferHeight = getHeight() + BUFFER_MARGIN * 2;
+				EGISLog.i("reconfig buffers [" + mBufferWidth + ","
+						+ mBufferHeight + "]");
 				mState = WorkerState.RENDER;
 				mLock.notify();
 			}
@@ -324,20 +1240,75 @@ public class TileLayer extends Layer {
 
 	};
 
+	/**
+	 * Tile drawn into one slot of view grid.<br>
+	 * Placeholder draws part of cached parent tile, or one cached child tile
+	 * into a quadrant, until real tile of slot arrives.
+	 */
 	class PixelTile {
 		int offsetX;
 		int offsetY;
+		/**
+		 * Size in view, 0 means tile size
+		 */
+		int width;
+		int height;
+		/**
+		 * Part of bitmap drawn, null means whole bitmap
+		 */
+		Rect src;
+		/**
+		 * Slot of view grid
+		 */
+		int row;
+		int col;
+		boolean isPlaceholder;
+		/**
+		 * Drawn into back buffer, guarded by mLock
+		 */
+		boolean isDrawn;
 		Tile tile;
 
+		PixelTile(PixelTile copy) {
+			this.offsetX = copy.offsetX;
+			this.offsetY = copy.offsetY;
+			this.width = copy.width;
+			this.height = copy.height;
+			this.src = copy.src;
+			this.row = copy.row;
+			this.col = copy.col;
+			this.isPlaceholder = copy.isPlaceholder;
+			this.isDrawn = copy.isDrawn;
+			this.tile = copy.tile;
+		}
+
 		public PixelTile(int offsetX, int offsetY, Tile tile) {
 			super();
 			this.offsetX = offsetX;
 			this.offsetY = offsetY;
 			this.tile = tile;
+			this.row = tile.mRow;
+			this.col = tile.mCol;
 		}
 
 	}
 
+	/**
+	 * Visible tile range of bounds
+	 */
+	static class TileGrid extends TileRange {
+		/**
+		 * Pixel offset of first tile in view
+		 */
+		int offsetX;
+		int offsetY;
+		/**
+		 * World pixel of bounds left top
+		 */
+		double pixelX;
+		double pixelY;
+	}
+
 	enum WorkerState {
 		NONE, RENDER, DONE, DIED;
 	}
@@ -1,12 +1,15 @@
 package com.easygis.map.layer;
 
 import com.easygis.map.Tile;
+import com.easygis.map.TileRange;
 
 public interface TileLayerDataLoader extends LayerDataLoader {
 
 	
 	/**
 	 * Get tile data by synchronization.<br>
+	 * Returned tile is owned by loader, call {@link Tile#acquire()} before
+	 * using it and {@link Tile#release()} when it's not used any more.<br>
 	 * @param row  row of tile
 	 * @param col  column of tile
 	 * @param zoom  zoom level
@@ -15,10 +18,23 @@ public interface TileLayerDataLoader extends LayerDataLoader {
 	public Tile getTile(int row, int col, int zoom);
 	
 	
+	/**
+	 * Get tile data from memory cache only, never load it.<br>
+	 * Same as {@link #getTile(int, int, int)}, tile must be acquired before use.
+	 * @param row  row of tile
+	 * @param col  column of tile
+	 * @param zoom  zoom level
+	 * @return  null if cache doesn't hold this tile
+	 */
+	public Tile getCachedTile(int row, int col, int zoom);
+	
+	
 	/**
 	 * Get tile data asynchronization.<br>
 	 * return not null means data already loaded, then won't call callback. Otherwise 
-	 * return null and call callback function when data is loaded. 
+	 * return null and call callback function when data is loaded. <br>
+	 * Same as {@link #getTile(int, int, int)}, tile must be acquired before use.<br>
+	 * If tile is already known missing, return null without calling callback.
 	 * @param row  row of tile
 	 * @param col  column of tile
 	 * @param zoom   zoom level
@@ -26,4 +42,39 @@ public interface TileLayerDataLoader extends LayerDataLoader {
 	 * @return  if not null, is cache data. Otherwise cache doesn't hold this tile data.
 	 */
 	public Tile getTileAsync(int row, int col, int zoom, TileDataLoaderCallback callback);
+	
+	
+	/**
+	 * Get tiles of a range by one request.<br>
+	 * Cached tiles are returned in row-major order of range, see
+	 * {@link TileRange#indexOf(int, int)}, others are null. Tiles which are not
+	 * cached are loaded together, in storage order when loader knows it, and
+	 * delivered to callback one by one like {@link #getTileAsync(int, int, int, TileDataLoaderCallback)}.<br>
+	 * Same as {@link #getTile(int, int, int)}, tile must be acquired before use.
+	 * @param range  tiles to get
+	 * @param callback  callback function of loaded tiles
+	 * @return  cached tiles of range, never null
+	 */
+	public Tile[] getTiles(TileRange range, TileDataLoaderCallback callback);
+	
+	
+	/**
+	 * Load tile to cache in background with low priority.<br>
+	 * Prefetch runs after all requested tiles, and doesn't call any callback.
+	 * @param row  row of tile
+	 * @param col  column of tile
+	 * @param zoom  zoom level
+	 */
+	public void prefetchTile(int row, int col, int zoom);
+	
+	
+	/**
+	 * Tell loader which tiles layer is showing now.<br>
+	 * Queued loads are ordered by distance to center of visible range and by
+	 * zoom level, tiles of fling target go first. Queued requests which left
+	 * both ranges are cancelled, their callbacks get null tile.
+	 * @param visible  visible tile range
+	 * @param target  tile range where current fling stops, null if not flinging
+	 */
+	public void updateViewport(TileRange visible, TileRange target);
 }
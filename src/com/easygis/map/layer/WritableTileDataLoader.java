@@ -0,0 +1,22 @@
+package com.easygis.map.layer;
+
+import com.easygis.map.Tile;
+
+/**
+ * Tile loader which can keep tiles loaded by another loader, such as faster
+ * tier of {@link com.easygis.map.service.CompositeTileDataLoader}.
+ * 
+ * @author jiangzhen
+ *
+ */
+public interface WritableTileDataLoader extends TileLayerDataLoader {
+
+	/**
+	 * Keep tile loaded by another loader, so later requests of it are served
+	 * by this loader.<br>
+	 * Loader takes its own reference by {@link Tile#acquireForCache()}, caller
+	 * still owns its reference.
+	 * @param tile  loaded tile
+	 */
+	public void putTile(Tile tile);
+}
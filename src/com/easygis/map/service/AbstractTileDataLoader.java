@@ -0,0 +1,936 @@
+package com.easygis.map.service;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.easygis.graphics.BitmapPool;
+import com.easygis.map.MapInfo;
+import com.easygis.map.Tile;
+import com.easygis.map.TileKey;
+import com.easygis.map.TileRange;
+import com.easygis.map.layer.BudgetedTileDataLoader;
+import com.easygis.map.layer.TileDataLoaderCallback;
+import com.easygis.map.layer.WritableTileDataLoader;
+import com.easygis.map.service.TileLoadTable.PendingLoad;
+import com.easygis.util.CoordinatorTranslation;
+import com.easygis.util.EGISLog;
+import com.easygis.util.LongLruCache;
+
+/**
+ * Base of tile loaders which decode tile bitmap from some storage.<br>
+ * <ul>Decoded tiles are held in memory cache, evicted bitmaps are pooled and reused for next decode.</ul>
+ * <ul>Bitmap config and subsampling follow {@link TileDecodePolicy}, cache counts real bitmap size.</ul>
+ * <ul>Cache and pool sizes follow {@link TileMemoryBudget}, and shrink by {@link #trimMemory(int)} levels.</ul>
+ * <ul>Overview tiles of low zoom levels are kept in a protected segment of cache.</ul>
+ * <ul>Loaders of same source may share cache of {@link TileCacheService}.</ul>
+ * <ul>Optional {@link DecodedTileDiskCache} keeps decoded pixels across process restarts.</ul>
+ * <ul>Optional {@link WarmStartSnapshot} preloads working tile set of last session.</ul>
+ * <ul>Asynchronous loads run on a bounded pool of decode workers, concurrent loads of same tile are shared.</ul>
+ * <ul>Prefetch loads are queued behind requested tiles and promoted when a tile is requested.</ul>
+ * <ul>Queued loads are ordered by distance to latest viewport, loads which left viewport are cancelled.</ul>
+ * <ul>Bulk requests of {@link #getTiles(TileRange, TileDataLoaderCallback)} are read in storage order by {@link #readOrderOf(long)}, split between workers.</ul>
+ * Subclass only need to implement {@link #decodeTile(int, int, int, BitmapFactory.Options)}.
+ * 
+ * @author jiangzhen
+ *
+ */
+public abstract class AbstractTileDataLoader implements WritableTileDataLoader,
+		BudgetedTileDataLoader {
+	
+	/**
+	 * Maximal count of decode workers
+	 */
+	private static final int MAX_DECODE_WORKERS = 4;
+	
+	/**
+	 * Budget of loaders until {@link #setMemoryBudget(TileMemoryBudget)} is called
+	 */
+	private static final TileMemoryBudget DEFAULT_BUDGET = TileMemoryBudget.fromRuntime();
+	
+	/**
+	 * Maximal count of tiles remembered for warm start
+	 */
+	private static final int MAX_WARM_START_TILES = 256;
+	
+	/**
+	 * Highest zoom level kept when memory is low, by default
+	 */
+	static final int DEFAULT_OVERVIEW_ZOOM = 2;
+	
+	/**
+	 * Pages of missing tiles, 128KB
+	 */
+	private static final int MISSING_TILE_PAGES = 256;
+	
+	protected MapInfo mMapInfo;
+	
+	protected CoordinatorTranslation mTranslation;
+	
+	private TileLoadTable mLoads = new TileLoadTable();
+	
+	private BitmapPool mBitmapPool = new BitmapPool(DEFAULT_BUDGET.getPoolSize());
+	
+	private MissingTileSet mMissingTiles = new MissingTileSet(MISSING_TILE_PAGES);
+	
+	private TileRequestScheduler mScheduler = new TileRequestScheduler();
+	
+	/**
+	 * Asynchronous loads on decode workers
+	 */
+	private TileLoadQueue mQueue = new TileLoadQueue("TileDecoder", Math.max(
+			1, Math.min(MAX_DECODE_WORKERS, Runtime.getRuntime()
+					.availableProcessors())), mScheduler);
+	
+	private volatile TileDecodePolicy mDecodePolicy = TileDecodePolicy.DEFAULT;
+	
+	private volatile DecodedTileDiskCache mDiskCache;
+	
+	private volatile File mWarmStartFile;
+	
+	/**
+	 * Decoded tiles, private cache or cache of source in {@link #mCacheService}
+	 */
+	private volatile TileMemoryCache mCache = newPrivateCache();
+	
+	private TileCacheService mCacheService;
+	
+	private Object mCacheLock = new Object();
+	
+	
+	private AtomicInteger mPrefetchLoads = new AtomicInteger();
+	
+	private AtomicInteger mPrefetchHits = new AtomicInteger();
+	
+	
+	public AbstractTileDataLoader(MapInfo mMapInfo) {
+		super();
+		this.mMapInfo = mMapInfo;
+		this.mTranslation = new CoordinatorTranslation((int)mMapInfo.mTileWidth);
+		mScheduler.setOverviewZoom(DEFAULT_OVERVIEW_ZOOM);
+	}
+
+	@Override
+	public void init() {
+		File file = mWarmStartFile;
+		if (file == null) {
+			return;
+		}
+		WarmStartSnapshot snapshot;
+		try {
+			snapshot = WarmStartSnapshot.read(file);
+		} catch (FileNotFoundException e) {
+			// First session
+			return;
+		} catch (IOException e) {
+			EGISLog.w("read warm start snapshot failed: " + e.getMessage());
+			return;
+		}
+		if (snapshot.getViewport() != null) {
+			mScheduler.setViewport(snapshot.getViewport(), null);
+		}
+		long[] keys = snapshot.preloadOrder();
+		TileRange viewport = snapshot.getViewport();
+		EGISLog.i("warm start preloads " + keys.length + " tiles of "
+				+ viewport);
+		for (long key : keys) {
+			int row = TileKey.row(key);
+			int col = TileKey.col(key);
+			int zoom = TileKey.zoom(key);
+			if (mCache.peek(key) != null || mMissingTiles.contains(row, col, zoom)
+					|| !mLoads.tryBegin(key)) {
+				continue;
+			}
+			// Kept until loaded, first viewport update must not cancel them
+			if (viewport != null && viewport.contains(row, col, zoom)) {
+				mQueue.execute(new LoadTask(new long[] { key },
+						TileLoadQueue.PRIORITY_REQUEST, true));
+			} else {
+				mQueue.execute(new LoadTask(new long[] { key },
+						TileLoadQueue.PRIORITY_PREFETCH, true));
+			}
+		}
+	}
+
+	@Override
+	public void load() {
+
+	}
+
+	@Override
+	public void unLoad() {
+		saveWarmStart();
+		// Wake up requests of tasks which never run
+		mQueue.shutdown();
+		trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+		setSharedCache(null, null);
+		// Layers keep tiles they hold, bitmaps are pooled when they release
+		mCache.evictAll();
+	}
+	
+	
+	/**
+	 * <ul>RUNNING_MODERATE: trim cache to 3/4 and clear bitmap pool.</ul>
+	 * <ul>RUNNING_LOW: trim cache to 1/2 and clear bitmap pool.</ul>
+	 * <ul>RUNNING_CRITICAL, UI_HIDDEN and BACKGROUND: keep only overview zoom levels.</ul>
+	 * <ul>MODERATE and COMPLETE: evict all tiles, forget missing tiles on COMPLETE.</ul>
+	 * Tiles in use by layers are kept on all levels.
+	 */
+	@Override
+	public void trimMemory(int level) {
+		EGISLog.i("trim memory level " + level + " " + mCache);
+		DecodedTileDiskCache disk = mDiskCache;
+		if (disk != null && level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+			// Process may be killed in background
+			disk.flush();
+		}
+		mBitmapPool.clear();
+		TileMemoryCache cache = mCache;
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+			cache.trimToSize(-1);
+			if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+				mMissingTiles.invalidateAll();
+			}
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+			cache.evictMain();
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+			cache.trimToSize(cache.maxSize() / 2);
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+			cache.trimToSize(cache.maxSize() * 3 / 4);
+		}
+	}
+	
+	
+	/**
+	 * Resize tile cache and bitmap pool. With shared cache, the service is
+	 * resized instead, its size is budget of all its sources.
+	 * @param budget  memory budget, see {@link TileMemoryBudget#fromContext(android.content.Context)}
+	 */
+	@Override
+	public void setMemoryBudget(TileMemoryBudget budget) {
+		synchronized (mCacheLock) {
+			if (mCacheService == null) {
+				mCache.resize(budget.getCacheSize());
+			} else {
+				mCacheService.setMaxSize(budget.getCacheSize());
+			}
+		}
+		mBitmapPool.resize(budget.getPoolSize());
+	}
+	
+	
+	/**
+	 * Share decoded tiles with other loaders of same source, tiles of private
+	 * cache are dropped. Shared cache is given back at {@link #unLoad()}.<br>
+	 * Shared cache keeps overview zoom of its service, eviction policy and
+	 * overview size of loader don't apply to it.
+	 * @param service  cache service, such as {@link TileCacheService#getDefault()}, null goes back to private cache
+	 * @param sourceId  id of tile source, loaders of same id must decode same tiles with same decode policy
+	 */
+	public void setSharedCache(TileCacheService service, String sourceId) {
+		TileMemoryCache cache = service != null ? service.acquire(sourceId)
+				: null;
+		TileMemoryCache old;
+		TileCacheService oldService;
+		synchronized (mCacheLock) {
+			if (cache == null && mCacheService == null) {
+				return;
+			}
+			old = mCache;
+			oldService = mCacheService;
+			mCache = cache != null ? cache : newPrivateCache();
+			mCacheService = service;
+		}
+		if (oldService != null) {
+			oldService.release(old);
+		} else {
+			old.evictAll();
+		}
+	}
+	
+	
+	/**
+	 * Change eviction policy of tile cache, default is LRU.<br>
+	 * LRU_2 and ARC keep tiles which are visited again, such as tiles around
+	 * home area, when a long fling streams new tiles through the cache. Their
+	 * recent list must still hold a few screens of tiles, so use them with a
+	 * large budget. Ignored while cache is shared.
+	 * @param policy  eviction policy
+	 */
+	public void setEvictionPolicy(LongLruCache.EvictionPolicy policy) {
+		synchronized (mCacheLock) {
+			if (isSharedCache("eviction policy")) {
+				return;
+			}
+			mCache.setEvictionPolicy(policy);
+		}
+	}
+	
+	
+	/**
+	 * Set highest zoom level of overview tiles. Overview tiles are kept in
+	 * protected segment of cache, and are kept by {@link #trimMemory(int)}
+	 * on critical levels. Their queued loads are never cancelled by viewport
+	 * changes. Shared cache keeps overview zoom of its service.
+	 * @param zoom  overview zoom level, default is 2, -1 disables protection
+	 */
+	public void setOverviewZoom(int zoom) {
+		mScheduler.setOverviewZoom(zoom);
+		synchronized (mCacheLock) {
+			if (isSharedCache("overview zoom")) {
+				return;
+			}
+			mCache.setProtectedZoom(zoom);
+		}
+	}
+	
+	
+	/**
+	 * Set bytes of protected segment of overview tiles, default is 1/4 of cache.
+	 * Ignored while cache is shared.
+	 * @param size  bytes of overview tiles
+	 */
+	public void setOverviewCacheSize(int size) {
+		synchronized (mCacheLock) {
+			if (isSharedCache("overview cache size")) {
+				return;
+			}
+			mCache.resize(mCache.maxSize(), size);
+		}
+	}
+	
+	
+	/**
+	 * Settings of shared cache belong to all loaders of the source, one
+	 * loader doesn't change them. Must hold mCacheLock.
+	 * @return true if cache is shared, setting is ignored
+	 */
+	private boolean isSharedCache(String setting) {
+		if (mCacheService == null) {
+			return false;
+		}
+		EGISLog.w("cache is shared, ignore " + setting + " of loader");
+		return true;
+	}
+
+	@Override
+	public Tile getTile(int row, int col, int zoom) {
+		long key = TileKey.pack(row, col, zoom);
+		Tile data = getFresh(mCache, key);
+		if (data != null) {
+			onRequestHit(data);
+			return data;
+		}
+		if (mMissingTiles.contains(row, col, zoom)) {
+			return null;
+		}
+		PendingLoad pending;
+		while ((pending = mLoads.begin(key, null)) != null) {
+			mQueue.promote(key, TileLoadQueue.PRIORITY_REQUEST);
+			data = pending.await();
+			if (data != null || !pending.isCancelled()) {
+				return data;
+			}
+			// Queued load left viewport, but caller still wants the tile
+		}
+		try {
+			data = loadTileIfAbsent(key, false);
+		} finally {
+			mLoads.complete(key, data);
+		}
+		return data;
+	}
+
+	@Override
+	public Tile getCachedTile(int row, int col, int zoom) {
+		Tile data = getFresh(mCache, TileKey.pack(row, col, zoom));
+		if (data != null) {
+			onRequestHit(data);
+		}
+		return data;
+	}
+
+	@Override
+	public Tile getTileAsync(int row, int col, int zoom,
+			TileDataLoaderCallback callback) {
+		long key = TileKey.pack(row, col, zoom);
+		Tile data = getFresh(mCache, key);
+		if (data != null) {
+			onRequestHit(data);
+			return data;
+		}
+		if (mMissingTiles.contains(row, col, zoom)) {
+			return null;
+		}
+		if (mLoads.begin(key, callback) != null) {
+			// Same tile is loading, callback will be called by that load
+			mQueue.promote(key, TileLoadQueue.PRIORITY_REQUEST);
+			return null;
+		}
+		schedule(key, TileLoadQueue.PRIORITY_REQUEST);
+		return null;
+	}
+
+	@Override
+	public Tile[] getTiles(TileRange range, TileDataLoaderCallback callback) {
+		Tile[] tiles = new Tile[range.count()];
+		long[] batch = new long[tiles.length];
+		int count = 0;
+		TileMemoryCache cache = mCache;
+		for (int row = range.startRow, i = 0; row <= range.endRow; row++) {
+			for (int col = range.startCol; col <= range.endCol; col++, i++) {
+				long key = TileKey.pack(row, col, range.zoom);
+				Tile data = getFresh(cache, key);
+				if (data != null) {
+					onRequestHit(data);
+					tiles[i] = data;
+				} else if (mMissingTiles.contains(row, col, range.zoom)) {
+					continue;
+				} else if (mLoads.begin(key, callback) != null) {
+					mQueue.promote(key, TileLoadQueue.PRIORITY_REQUEST);
+				} else {
+					batch[count++] = key;
+				}
+			}
+		}
+		if (count > 0) {
+			scheduleBatch(batch, count);
+		}
+		return tiles;
+	}
+	
+	
+	/**
+	 * Put tile of another loader to memory cache, tile is no longer missing.
+	 */
+	@Override
+	public void putTile(Tile tile) {
+		long key = TileKey.pack(tile.mRow, tile.mCol, tile.mZoom);
+		TileMemoryCache cache = mCache;
+		if (cache.peek(key) == tile || !tile.acquireForCache()) {
+			return;
+		}
+		mMissingTiles.invalidate(tile.mRow, tile.mCol, tile.mZoom);
+		cache.put(key, tile);
+	}
+	
+	
+	@Override
+	public void prefetchTile(int row, int col, int zoom) {
+		long key = TileKey.pack(row, col, zoom);
+		if ((mCache.peek(key) != null && !isExpired(key))
+				|| mMissingTiles.contains(row, col, zoom)) {
+			return;
+		}
+		if (mLoads.tryBegin(key)) {
+			schedule(key, TileLoadQueue.PRIORITY_PREFETCH);
+		}
+	}
+	
+	
+	/**
+	 * Queue is ranked again and loads which left viewport are cancelled
+	 * when next load is taken, not here.
+	 */
+	@Override
+	public void updateViewport(TileRange visible, TileRange target) {
+		mScheduler.setViewport(visible, target);
+	}
+	
+	
+	/**
+	 * Set how tiles are decoded, tiles already in cache are kept.
+	 * @param policy  decode policy
+	 * @see TileDecodePolicy#forSource(MapInfo, android.util.DisplayMetrics)
+	 */
+	public void setDecodePolicy(TileDecodePolicy policy) {
+		if (policy == null) {
+			throw new NullPointerException("policy == null");
+		}
+		if (policy != mDecodePolicy) {
+			mDecodePolicy = policy;
+			// Pooled bitmaps may not match new policy
+			mBitmapPool.clear();
+		}
+	}
+	
+	
+	public TileDecodePolicy getDecodePolicy() {
+		return mDecodePolicy;
+	}
+	
+	
+	/**
+	 * Remember working tile set at {@link #unLoad()} and preload it at
+	 * {@link #init()}, so first frame of next session comes from cache.<br>
+	 * With {@link #setDecodedDiskCache(DecodedTileDiskCache)}, preload copies
+	 * decoded pixels instead of decoding.
+	 * @param file  snapshot file, null disables warm start
+	 */
+	public void setWarmStartFile(File file) {
+		this.mWarmStartFile = file;
+	}
+	
+	
+	/**
+	 * Write last viewport and most recently used tiles to warm start file.
+	 */
+	private void saveWarmStart() {
+		File file = mWarmStartFile;
+		if (file == null) {
+			return;
+		}
+		// Most recent tiles of main segment first, overview tiles fill the rest
+		long[] keys = mCache.keys();
+		int count = Math.min(keys.length, MAX_WARM_START_TILES);
+		long[] recent = new long[count];
+		for (int i = 0; i < count; i++) {
+			recent[i] = keys[keys.length - 1 - i];
+		}
+		try {
+			new WarmStartSnapshot(mScheduler.getVisible(), recent).write(file);
+		} catch (IOException e) {
+			EGISLog.w("write warm start snapshot failed: " + e.getMessage());
+		}
+	}
+	
+	
+	/**
+	 * Keep decoded pixels on disk, so repeat visits copy pixels instead of
+	 * decoding. Disk cache should be opened with decoded tile size and config
+	 * of decode policy, other tiles are not stored.
+	 * @param cache  disk cache, null disables it
+	 */
+	public void setDecodedDiskCache(DecodedTileDiskCache cache) {
+		this.mDiskCache = cache;
+	}
+	
+	
+	public DecodedTileDiskCache getDecodedDiskCache() {
+		return mDiskCache;
+	}
+	
+	
+	/**
+	 * Set how many tiles around viewport queued prefetches are kept.
+	 * @param margin  count of tiles, default is 2
+	 */
+	public void setPrefetchMargin(int margin) {
+		mScheduler.setPrefetchMargin(margin);
+	}
+	
+	
+	/**
+	 * 
+	 * @return count of queued loads cancelled because they left viewport
+	 */
+	public int getCancelledLoadCount() {
+		return mQueue.getCancelledLoadCount();
+	}
+	
+	
+	/**
+	 * 
+	 * @return count of requests served by decoded tile cache
+	 */
+	public int getCacheHitCount() {
+		return mCache.hitCount();
+	}
+	
+	
+	/**
+	 * 
+	 * @return count of requests missed by decoded tile cache
+	 */
+	public int getCacheMissCount() {
+		return mCache.missCount();
+	}
+	
+	
+	/**
+	 * Get ratio of prefetched tiles which are requested later.
+	 * @return hit rate in [0, 1]
+	 */
+	public float getPrefetchHitRate() {
+		int loads = mPrefetchLoads.get();
+		return loads == 0 ? 0 : (float) mPrefetchHits.get() / loads;
+	}
+	
+	/**
+	 * 
+	 * @return count of tiles loaded by prefetch
+	 */
+	public int getPrefetchLoadCount() {
+		return mPrefetchLoads.get();
+	}
+	
+	/**
+	 * 
+	 * @return count of prefetched tiles evicted before requested
+	 */
+	public int getPrefetchWastedCount() {
+		return mCache.prefetchWastedCount();
+	}
+	
+	
+	private void onRequestHit(Tile tile) {
+		if (tile.isPrefetched) {
+			tile.isPrefetched = false;
+			mPrefetchHits.incrementAndGet();
+		}
+	}
+	
+	
+	/**
+	 * Queue load of registered key
+	 */
+	private void schedule(long key, int priority) {
+		mQueue.execute(new LoadTask(new long[] { key }, priority, false));
+	}
+	
+	
+	/**
+	 * Queue loads of registered keys sorted by read order, one run of
+	 * neighbouring tiles per worker, so workers read in parallel and each
+	 * reads forward.
+	 */
+	private void scheduleBatch(long[] keys, int count) {
+		long[] sorted = sortByReadOrder(keys, count);
+		int workers = mQueue.getWorkerCount();
+		int runs = Math.min(workers, count);
+		for (int run = 0, start = 0; run < runs; run++) {
+			int end = (int) ((long) count * (run + 1) / runs);
+			mQueue.execute(new LoadTask(Arrays.copyOfRange(sorted, start, end),
+					TileLoadQueue.PRIORITY_REQUEST, false));
+			start = end;
+		}
+	}
+	
+	
+	/**
+	 * Get how many duplicated tile loads are saved by sharing in-flight
+	 * loads.
+	 * @return count of saved loads
+	 */
+	public long getDuplicateLoadsSaved() {
+		return mLoads.getSavedLoadCount();
+	}
+	
+	
+	/**
+	 * Get negative cache of tiles which storage doesn't have.<br>
+	 * Invalidate it when tiles are added to storage.
+	 * @return missing tiles
+	 */
+	public MissingTileSet getMissingTiles() {
+		return mMissingTiles;
+	}
+	
+	
+	/**
+	 * Get tile from memory cache, expired tile is removed and counts as miss.
+	 * Layers keep expired tile they hold until they release it.
+	 */
+	private Tile getFresh(TileMemoryCache cache, long key) {
+		Tile data = cache.get(key);
+		if (data != null && isExpired(key)) {
+			cache.remove(key);
+			return null;
+		}
+		return data;
+	}
+	
+	
+	/**
+	 * Check cache again before load, previous load of same tile maybe finished
+	 * between cache lookup and load registration.
+	 */
+	private Tile loadTileIfAbsent(long key, boolean prefetch) {
+		Tile data = getFresh(mCache, key);
+		if (data == null) {
+			data = loadTile(key, prefetch);
+		}
+		return data;
+	}
+	
+	
+	/**
+	 * Decode tile bitmap from storage.<br>
+	 * Called from decode worker or caller of {@link #getTile(int, int, int)}, 
+	 * may be called concurrently for different tiles.
+	 * @param row  row of tile
+	 * @param col  column of tile
+	 * @param zoom  zoom level
+	 * @param options  decode options, decode into options.inBitmap if it's not null
+	 * @return  null if storage doesn't have this tile or it can't be decoded
+	 * @throws IOException  if storage can't be read now, tile is not remembered as missing
+	 */
+	protected abstract Bitmap decodeTile(int row, int col, int zoom,
+			BitmapFactory.Options options) throws IOException;
+	
+	
+	/**
+	 * Check whether tile in memory must be loaded from storage again, such
+	 * as a downloaded tile past its expire time. Default is false.<br>
+	 * Called on each memory hit, keep it cheap.
+	 * @param key  tile key
+	 * @return true if tile in memory is expired
+	 */
+	protected boolean isExpired(long key) {
+		return false;
+	}
+	
+	
+	/**
+	 * Position of tile in storage, bulk requests are read in ascending order
+	 * of it. Default is tile key, the order of zoom, row and column.<br>
+	 * Called from thread of {@link #getTiles(TileRange, TileDataLoaderCallback)}, keep it cheap.
+	 * @param key  tile key
+	 * @return position, such as file offset
+	 */
+	protected long readOrderOf(long key) {
+		return key;
+	}
+	
+	
+	/**
+	 * Sort keys by {@link #readOrderOf(long)} without boxing
+	 * @param keys  tile keys
+	 * @param count  count of keys to sort from start of keys
+	 * @return new array of first count keys in read order
+	 */
+	long[] sortByReadOrder(long[] keys, int count) {
+		long[] orders = new long[count];
+		for (int i = 0; i < count; i++) {
+			orders[i] = readOrderOf(keys[i]);
+		}
+		long[] sortedOrders = orders.clone();
+		Arrays.sort(sortedOrders);
+		// Position of read order and index of key in one value
+		long[] packed = new long[count];
+		for (int i = 0; i < count; i++) {
+			packed[i] = (long) Arrays.binarySearch(sortedOrders, orders[i]) << 32
+					| i;
+		}
+		Arrays.sort(packed);
+		long[] sorted = new long[count];
+		for (int i = 0; i < count; i++) {
+			sorted[i] = keys[(int) packed[i]];
+		}
+		return sorted;
+	}
+	
+	
+	/**
+	 * Called from decode worker with tiles of a bulk request in read order,
+	 * before they are decoded one by one. Subclass may merge neighbouring
+	 * reads here. Default does nothing.
+	 * @param keys  tile keys which are not in cache
+	 * @throws IOException
+	 */
+	protected void readAhead(long[] keys) throws IOException {
+	}
+	
+	
+	/**
+	 * Decode tile and put it to cache.
+	 * @param key  tile key
+	 * @param prefetch  true if tile is not requested yet
+	 * @return  null if tile doesn't exist, can't be decoded or can't be read now
+	 */
+	private Tile loadTile(long key, boolean prefetch) {
+		int row = TileKey.row(key);
+		int col = TileKey.col(key);
+		int zoom = TileKey.zoom(key);
+		Bitmap bitmap;
+		try {
+			bitmap = loadBitmap(row, col, zoom);
+		} catch (IOException e) {
+			EGISLog.w("load " + TileKey.toString(key) + " failed: "
+					+ e.getMessage());
+			return null;
+		}
+		if (bitmap == null) {
+			// Only storage answering "no tile" is remembered, not a decode
+			// cancelled by unLoad
+			if (!Thread.currentThread().isInterrupted()) {
+				mMissingTiles.add(row, col, zoom);
+			}
+			return null;
+		}
+		Tile data = new Tile();
+		data.mCol = col;
+		data.mRow = row;
+		data.mZoom = zoom;
+		data.mResolution = mTranslation.resolution(zoom);
+		data.mScale = mTranslation.scale(zoom);
+		data.mBounds = mTranslation.translateTileBounds(row, col, zoom);
+		data.mTileData = bitmap;
+		data.setRecycler(mTileRecycler);
+		data.isPrefetched = prefetch;
+		if (prefetch) {
+			mPrefetchLoads.incrementAndGet();
+		}
+		mCache.put(key, data);
+		return data;
+	}
+	
+	
+	private Bitmap loadBitmap(int row, int col, int zoom) throws IOException {
+		TileDecodePolicy policy = mDecodePolicy;
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inMutable = true;
+		policy.applyTo(options);
+		if (policy.canReuseBitmap()) {
+			options.inBitmap = mBitmapPool.get(
+					policy.decodedWidth((int) mMapInfo.mTileWidth),
+					policy.decodedHeight((int) mMapInfo.mTileHeight),
+					policy.getConfig());
+		}
+		DecodedTileDiskCache disk = mDiskCache;
+		long key = TileKey.pack(row, col, zoom);
+		if (disk != null) {
+			Bitmap target = options.inBitmap;
+			if (target == null) {
+				target = Bitmap.createBitmap(disk.getTileWidth(),
+						disk.getTileHeight(), disk.getConfig());
+			}
+			if (disk.get(key, target)) {
+				return target;
+			}
+			if (options.inBitmap == null) {
+				if (policy.canReuseBitmap()) {
+					options.inBitmap = target;
+				} else {
+					mBitmapPool.put(target);
+				}
+			}
+		}
+		Bitmap bitmap = null;
+		try {
+			try {
+				bitmap = decodeTile(row, col, zoom, options);
+			} catch (IllegalArgumentException e) {
+				// Tile size doesn't match pooled bitmap
+				mBitmapPool.put(options.inBitmap);
+				options.inBitmap = null;
+				bitmap = decodeTile(row, col, zoom, options);
+			}
+		} finally {
+			if (bitmap == null && options.inBitmap != null) {
+				mBitmapPool.put(options.inBitmap);
+			}
+		}
+		if (bitmap != null && disk != null) {
+			disk.put(key, bitmap);
+		}
+		return bitmap;
+	}
+	
+	
+	/**
+	 * Asynchronous load of registered keys, keys of bulk request are loaded
+	 * in read order.
+	 */
+	private class LoadTask extends TileLoadQueue.Task {
+		
+		LoadTask(long[] keys, int priority, boolean kept) {
+			super(keys, priority, kept, mScheduler);
+		}
+
+		@Override
+		protected void load() {
+			boolean prefetch = isPrefetch();
+			int done = 0;
+			try {
+				if (mKeys.length > 1) {
+					try {
+						readAhead(mKeys);
+					} catch (IOException e) {
+						// Tiles are still read one by one
+						EGISLog.w("read ahead of " + mKeys.length
+								+ " tiles failed: " + e.getMessage());
+					}
+				}
+				while (done < mKeys.length) {
+					long key = mKeys[done];
+					Tile tile = null;
+					try {
+						if (mKeys.length > 1 && leftViewport(key)) {
+							// Part of bulk request which left viewport
+							mLoads.cancel(key);
+						} else {
+							tile = loadTileIfAbsent(key, prefetch);
+						}
+					} finally {
+						done++;
+						mLoads.complete(key, tile);
+					}
+				}
+			} finally {
+				// Wake up requests of tiles which are not loaded
+				for (int i = done; i < mKeys.length; i++) {
+					mLoads.complete(mKeys[i], null);
+				}
+			}
+		}
+
+		@Override
+		protected void cancel() {
+			for (long key : mKeys) {
+				mLoads.cancel(key);
+			}
+		}
+		
+	}
+	
+	
+	/**
+	 * Bitmap goes back to pool when cache and all layers released the tile.
+	 */
+	private Tile.Recycler mTileRecycler = new Tile.Recycler() {
+
+		@Override
+		public void recycle(Tile tile) {
+			Bitmap bitmap = (Bitmap) tile.mTileData;
+			tile.mTileData = null;
+			mBitmapPool.put(bitmap);
+		}
+
+	};
+	
+	
+	
+	/**
+	 * Cache of this loader only, sized by default budget
+	 */
+	private TileMemoryCache newPrivateCache() {
+		return new TileMemoryCache(DEFAULT_BUDGET.getCacheSize(), DEFAULT_OVERVIEW_ZOOM) {
+
+			@Override
+			protected void entryRemoved(boolean evicted, long key,
+					Tile oldValue, Tile newValue) {
+				if (oldValue != null && oldValue != newValue) {
+					// Cache reference, bitmap is pooled once layers release it
+					oldValue.releaseFromCache();
+				}
+				EGISLog.i("[" + this.size() + "/" + this.maxSize() + "]   "
+						+ TileKey.toString(key) + "  evicted:" + evicted
+						+ " oldValue: " + oldValue + " newValue:" + newValue);
+			}
+
+			@Override
+			protected int sizeOf(long key, Tile value) {
+				return TileCacheService.byteCountOf((Bitmap) value.mTileData);
+			}
+			
+		};
+	}
+
+}
@@ -0,0 +1,112 @@
+package com.easygis.map.service;
+
+import java.io.File;
+import java.io.IOException;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.easygis.map.MapInfo;
+import com.easygis.map.TileKey;
+import com.easygis.util.ByteBufferInputStream;
+import com.easygis.util.EGISLog;
+
+/**
+ * Load tiles from single file {@link TileArchive}.<br>
+ * Archive is memory mapped, tile is decoded from mapped bytes directly, no
+ * file is opened per tile.
+ * 
+ * @see TileArchiveBuilder
+ * @author jiangzhen
+ * 
+ */
+public class ArchiveTileDataLoader extends AbstractTileDataLoader {
+
+	private File mArchiveFile;
+
+	private volatile TileArchive mArchive;
+
+	/**
+	 * 
+	 * @param mMapInfo
+	 * @param archiveFile
+	 *            archive built by {@link TileArchiveBuilder}
+	 */
+	public ArchiveTileDataLoader(MapInfo mMapInfo, File archiveFile) {
+		super(mMapInfo);
+		this.mArchiveFile = archiveFile;
+	}
+
+	@Override
+	public void init() {
+		super.init();
+		try {
+			getArchive();
+		} catch (IOException e) {
+			// Opened again on first tile
+		}
+	}
+
+	@Override
+	public void unLoad() {
+		super.unLoad();
+		synchronized (this) {
+			mArchive = null;
+		}
+	}
+
+	@Override
+	protected Bitmap decodeTile(int row, int col, int zoom,
+			BitmapFactory.Options options) throws IOException {
+		TileArchive archive = getArchive();
+		int entry = archive.find(TileKey.pack(row, col, zoom));
+		if (entry < 0) {
+			return null;
+		}
+		return BitmapFactory.decodeStream(
+				new ByteBufferInputStream(archive.slice(entry)), null, options);
+	}
+
+	/**
+	 * Bulk requests read the mapped file forward, so kernel read ahead
+	 * covers following tiles.
+	 */
+	@Override
+	protected long readOrderOf(long key) {
+		TileArchive archive;
+		try {
+			archive = getArchive();
+		} catch (IOException e) {
+			// Unordered, tiles report the error when they are loaded
+			return -1;
+		}
+		int entry = archive.find(key);
+		return entry < 0 ? -1 : archive.offsetAt(entry);
+	}
+
+	/**
+	 * 
+	 * @throws IOException
+	 *             if archive can't be opened now, it's opened again on next
+	 *             call
+	 */
+	private TileArchive getArchive() throws IOException {
+		TileArchive archive = mArchive;
+		if (archive != null) {
+			return archive;
+		}
+		synchronized (this) {
+			if (mArchive == null) {
+				try {
+					mArchive = TileArchive.open(mArchiveFile);
+				} catch (IOException e) {
+					EGISLog.e("can't open tile archive " + mArchiveFile + " "
+							+ e.getMessage());
+					throw e;
+				}
+			}
+			return mArchive;
+		}
+	}
+
+}
@@ -0,0 +1,376 @@
+package com.easygis.map.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Locale;
+
+import com.easygis.map.MapInfo;
+import com.easygis.map.TileKey;
+import com.easygis.util.EGISLog;
+import com.easygis.util.LongLruCache;
+
+/**
+ * Load tiles from ArcGIS compact cache (bundle/bundlx) directly.<br>
+ * <p>
+ * mTilePath is layer directory of cache, which contains level folders like
+ * L00, L01... Each level folder holds bundles of 128x128 tiles named
+ * RrrrrCcccc.bundle with its index RrrrrCcccc.bundlx, rrrr and cccc are
+ * hexadecimal of first row and column of bundle.
+ * </p>
+ * <p>
+ * Bundle index is 16 bytes header, 128x128 little endian 5 bytes offsets in
+ * column major order and 16 bytes footer. At the offset, bundle has 4 bytes
+ * little endian tile length followed by encoded image.
+ * </p>
+ * Row and column are ArcGIS tiling scheme row and column, row 0 is at top of
+ * full extent. Indexes of recently used bundles are kept in memory and tiles
+ * are read by positioned reads from open file channels.<br>
+ * Tiles of bulk request are read in index order, neighbouring tiles of a
+ * bundle by one read of up to {@link #MAX_MERGED_READ} bytes.
+ *
+ * @author jiangzhen
+ *
+ */
+public class BundleTileDataLoader extends EncodedTileDataLoader {
+
+	private static final int PACKET_SIZE = 128;
+
+	private static final int INDEX_HEADER_SIZE = 16;
+
+	private static final int INDEX_RECORD_SIZE = 5;
+
+	/**
+	 * Most bytes of one merged read of neighbouring tiles
+	 */
+	static final int MAX_MERGED_READ = 512 * 1024;
+
+	/**
+	 * Tiles further apart are read separately
+	 */
+	private static final int MAX_MERGE_GAP = 64 * 1024;
+
+	/**
+	 * Default count of bundles kept open
+	 */
+	private static final int DEFAULT_OPEN_BUNDLES = 16;
+
+	private LongLruCache<Bundle> mBundles;
+
+	/**
+	 * Guards check and put of opened bundle, bundles are opened without it
+	 */
+	private Object mOpenLock = new Object();
+
+	public BundleTileDataLoader(MapInfo mMapInfo) {
+		this(mMapInfo, DEFAULT_OPEN_BUNDLES);
+	}
+
+	/**
+	 *
+	 * @param mMapInfo
+	 * @param openBundles
+	 *            count of bundle indexes and channels kept in memory
+	 */
+	public BundleTileDataLoader(MapInfo mMapInfo, int openBundles) {
+		super(mMapInfo);
+		mBundles = new LongLruCache<Bundle>(openBundles) {
+
+			@Override
+			protected void entryRemoved(boolean evicted, long key,
+					Bundle oldValue, Bundle newValue) {
+				if (oldValue != newValue) {
+					oldValue.close();
+				}
+			}
+
+		};
+	}
+
+	@Override
+	public void unLoad() {
+		super.unLoad();
+		mBundles.evictAll();
+	}
+
+	@Override
+	protected byte[] readTile(int row, int col, int zoom) throws IOException {
+		Bundle bundle = getBundle(row, col, zoom);
+		if (bundle == null) {
+			return null;
+		}
+		try {
+			return bundle.read(row, col);
+		} catch (ClosedChannelException e) {
+			// Evicted while reading, or reader interrupted
+			mBundles.remove(bundle.mKey);
+			if (e instanceof ClosedByInterruptException
+					|| Thread.currentThread().isInterrupted()) {
+				throw e;
+			}
+		}
+		// Once more on freshly opened bundle
+		bundle = getBundle(row, col, zoom);
+		return bundle == null ? null : bundle.read(row, col);
+	}
+
+	/**
+	 * Bundle, then column major order of bundle index.
+	 */
+	@Override
+	protected long readOrderOf(long key) {
+		int row = TileKey.row(key);
+		int col = TileKey.col(key);
+		long zoom = TileKey.zoom(key);
+		long record = (col % PACKET_SIZE) * PACKET_SIZE + row % PACKET_SIZE;
+		return zoom << 56 | (long) (row / PACKET_SIZE) << 35
+				| (long) (col / PACKET_SIZE) << 14 | record;
+	}
+
+	/**
+	 * Merge reads of neighbouring tiles of each bundle, tiles are put to
+	 * encoded tier before they are decoded.
+	 */
+	@Override
+	protected void readAhead(long[] keys) throws IOException {
+		int start = 0;
+		while (start < keys.length) {
+			int row = TileKey.row(keys[start]);
+			int col = TileKey.col(keys[start]);
+			int zoom = TileKey.zoom(keys[start]);
+			long bundleKey = readOrderOf(keys[start]) >>> 14;
+			int end = start + 1;
+			while (end < keys.length && readOrderOf(keys[end]) >>> 14 == bundleKey) {
+				end++;
+			}
+			Bundle bundle = getBundle(row, col, zoom);
+			if (bundle != null && end - start > 1) {
+				// Tiles not read here are read one by one
+				try {
+					readMerged(bundle, keys, start, end);
+				} catch (ClosedChannelException e) {
+					mBundles.remove(bundle.mKey);
+				}
+			}
+			start = end;
+		}
+	}
+
+	private void readMerged(Bundle bundle, long[] keys, int start, int end)
+			throws IOException {
+		int count = 0;
+		long[] tiles = new long[end - start];
+		for (int i = start; i < end; i++) {
+			if (hasEncodedTile(keys[i])) {
+				continue;
+			}
+			long offset = bundle.offsetOf(TileKey.row(keys[i]),
+					TileKey.col(keys[i]));
+			// Offset and key in one value, sorted by offset
+			tiles[count++] = offset << 24 | (i - start);
+		}
+		Arrays.sort(tiles, 0, count);
+		int first = 0;
+		while (first < count) {
+			long from = tiles[first] >>> 24;
+			int last = first;
+			while (last + 1 < count) {
+				long next = tiles[last + 1] >>> 24;
+				if (next - (tiles[last] >>> 24) > MAX_MERGE_GAP
+						|| next + MAX_MERGE_GAP - from > MAX_MERGED_READ) {
+					break;
+				}
+				last++;
+			}
+			if (last > first) {
+				int size = (int) ((tiles[last] >>> 24) + MAX_MERGE_GAP - from);
+				ByteBuffer buffer = ByteBuffer.allocate(size);
+				bundle.readAvailable(buffer, from);
+				byte[] data = buffer.array();
+				int limit = buffer.position();
+				for (int i = first; i <= last; i++) {
+					int position = (int) ((tiles[i] >>> 24) - from);
+					if (position + 4 > limit) {
+						break;
+					}
+					int length = (data[position] & 0xFF)
+							| (data[position + 1] & 0xFF) << 8
+							| (data[position + 2] & 0xFF) << 16
+							| (data[position + 3] & 0xFF) << 24;
+					if (length <= 0 || position + 4 + length > limit) {
+						// Missing or not in buffer, read by itself
+						continue;
+					}
+					putEncodedTile(keys[start + (int) (tiles[i] & 0xFFFFFF)],
+							Arrays.copyOfRange(data, position + 4, position + 4
+									+ length));
+				}
+			}
+			first = last + 1;
+		}
+	}
+
+	/**
+	 * 
+	 * @return null if bundle doesn't exist
+	 * @throws IOException
+	 *             if bundle exists but can't be opened
+	 */
+	private Bundle getBundle(int row, int col, int zoom) throws IOException {
+		int bundleRow = row - row % PACKET_SIZE;
+		int bundleCol = col - col % PACKET_SIZE;
+		long key = TileKey.pack(bundleRow, bundleCol, zoom);
+		Bundle bundle = mBundles.get(key);
+		if (bundle == null) {
+			// Slow open doesn't hold lookups of open bundles
+			Bundle opened = openBundle(key, bundleRow, bundleCol, zoom);
+			synchronized (mOpenLock) {
+				bundle = mBundles.peek(key);
+				if (bundle == null) {
+					bundle = opened;
+					mBundles.put(key, bundle);
+				}
+			}
+			if (bundle != opened) {
+				// Opened by another worker meanwhile
+				opened.close();
+			}
+		}
+		return bundle.mChannel == null ? null : bundle;
+	}
+
+	/**
+	 * Read whole bundle index to memory and open bundle channel.<br>
+	 * Bundle without channel marks missing bundle, so missing files are not
+	 * checked again. Bundle which can't be read now is not kept.
+	 */
+	private Bundle openBundle(long key, int bundleRow, int bundleCol, int zoom)
+			throws IOException {
+		String name = String.format(Locale.US, "L%02d/R%04xC%04x", zoom,
+				bundleRow, bundleCol);
+		File indexFile = new File(mMapInfo.mTilePath, name + ".bundlx");
+		File bundleFile = new File(mMapInfo.mTilePath, name + ".bundle");
+		Bundle bundle = new Bundle(key, bundleRow, bundleCol);
+		if (!indexFile.exists() || !bundleFile.exists()) {
+			return bundle;
+		}
+		RandomAccessFile index = null;
+		try {
+			index = new RandomAccessFile(indexFile, "r");
+			byte[] records = new byte[PACKET_SIZE * PACKET_SIZE
+					* INDEX_RECORD_SIZE];
+			index.seek(INDEX_HEADER_SIZE);
+			index.readFully(records);
+			bundle.mIndex = records;
+			bundle.mFile = new RandomAccessFile(bundleFile, "r");
+			bundle.mChannel = bundle.mFile.getChannel();
+		} catch (IOException e) {
+			EGISLog.e("open bundle " + bundleFile + " failed: "
+					+ e.getMessage());
+			bundle.close();
+			throw e;
+		} finally {
+			if (index != null) {
+				try {
+					index.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		return bundle;
+	}
+
+	class Bundle {
+
+		long mKey;
+
+		int mRow;
+
+		int mCol;
+
+		byte[] mIndex;
+
+		RandomAccessFile mFile;
+
+		FileChannel mChannel;
+
+		Bundle(long key, int row, int col) {
+			this.mKey = key;
+			this.mRow = row;
+			this.mCol = col;
+		}
+
+		/**
+		 * Read encoded tile by positioned reads, safe for concurrent callers.
+		 *
+		 * @return null if bundle doesn't hold this tile
+		 */
+		byte[] read(int row, int col) throws IOException {
+			long offset = offsetOf(row, col);
+			ByteBuffer header = ByteBuffer.allocate(4);
+			readFully(header, offset);
+			int length = (header.get(0) & 0xFF)
+					| (header.get(1) & 0xFF) << 8
+					| (header.get(2) & 0xFF) << 16
+					| (header.get(3) & 0xFF) << 24;
+			if (length <= 0) {
+				return null;
+			}
+			byte[] data = new byte[length];
+			readFully(ByteBuffer.wrap(data), offset + 4);
+			return data;
+		}
+
+		/**
+		 * 
+		 * @return offset of tile length in bundle
+		 */
+		long offsetOf(int row, int col) {
+			int record = ((col - mCol) * PACKET_SIZE + (row - mRow))
+					* INDEX_RECORD_SIZE;
+			long offset = 0;
+			for (int i = INDEX_RECORD_SIZE - 1; i >= 0; i--) {
+				offset = (offset << 8) | (mIndex[record + i] & 0xFF);
+			}
+			return offset;
+		}
+
+		/**
+		 * Read until buffer is full or end of bundle
+		 */
+		void readAvailable(ByteBuffer buffer, long position) throws IOException {
+			while (buffer.hasRemaining()) {
+				int read = mChannel.read(buffer, position);
+				if (read < 0) {
+					return;
+				}
+				position += read;
+			}
+		}
+
+		private void readFully(ByteBuffer buffer, long position)
+				throws IOException {
+			while (buffer.hasRemaining()) {
+				int read = mChannel.read(buffer, position);
+				if (read < 0) {
+					throw new IOException("unexpected end of bundle");
+				}
+				position += read;
+			}
+		}
+
+		void close() {
+			if (mFile != null) {
+				try {
+					mFile.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+}
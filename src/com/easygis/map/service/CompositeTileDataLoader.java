@@ -0,0 +1,476 @@
+package com.easygis.map.service;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.easygis.map.Tile;
+import com.easygis.map.TileKey;
+import com.easygis.map.TileRange;
+import com.easygis.map.layer.BudgetedTileDataLoader;
+import com.easygis.map.layer.TileDataLoaderCallback;
+import com.easygis.map.layer.TileLayerDataLoader;
+import com.easygis.map.layer.WritableTileDataLoader;
+import com.easygis.map.service.TileLoadTable.PendingLoad;
+import com.easygis.util.EGISLog;
+import com.easygis.util.LatencyHistogram;
+
+/**
+ * Tile loader which tries an ordered chain of loaders, fastest first.<br>
+ * <ul>
+ * Such as an {@link ArchiveTileDataLoader} of packed base map, a
+ * {@link LocalTileDataLoader} of downloaded tiles and a
+ * {@link HttpTileDataLoader}. Tile found by a tier is written back to faster
+ * tiers which implement
+ * {@link com.easygis.map.layer.WritableTileDataLoader}.
+ * </ul>
+ * <ul>
+ * Each tier records hits, misses and a {@link LatencyHistogram} of its
+ * loads, so it shows where tile latency comes from. Tiles served from memory
+ * of a tier are counted apart, they don't load.
+ * </ul>
+ * <ul>
+ * Asynchronous loads walk the chain on own {@link TileLoadQueue}, requested
+ * tiles before prefetches, nearest to latest viewport first. Queued prefetch
+ * is promoted when its tile is requested, loads which left viewport are
+ * cancelled.
+ * </ul>
+ * <ul>
+ * Bulk requests are split between workers. Each worker passes its tiles to
+ * tiers one after another, a tier gets only the tiles faster tiers didn't
+ * have. An {@link AbstractTileDataLoader} tier gets them in its
+ * {@link AbstractTileDataLoader#readOrderOf(long)} and may merge their reads.
+ * </ul>
+ * <ul>
+ * Tile which every tier knows missing, see
+ * {@link AbstractTileDataLoader#getMissingTiles()}, is not looked up again.
+ * </ul>
+ *
+ * @author jiangzhen
+ *
+ */
+public class CompositeTileDataLoader implements BudgetedTileDataLoader {
+
+	/**
+	 * Workers walking the chain, tiers may block on network
+	 */
+	private static final int WORKERS = 4;
+
+	private Tier[] mTiers;
+
+	private TileLoadTable mLoads = new TileLoadTable();
+
+	private TileRequestScheduler mScheduler = new TileRequestScheduler();
+
+	private TileLoadQueue mQueue = new TileLoadQueue("TileChain", WORKERS,
+			mScheduler);
+
+	/**
+	 *
+	 * @param tiers
+	 *            loaders, fastest first
+	 */
+	public CompositeTileDataLoader(TileLayerDataLoader... tiers) {
+		if (tiers.length == 0) {
+			throw new IllegalArgumentException("no tier");
+		}
+		mTiers = new Tier[tiers.length];
+		for (int i = 0; i < tiers.length; i++) {
+			if (tiers[i] == null) {
+				throw new NullPointerException("tier " + i + " == null");
+			}
+			mTiers[i] = new Tier(tiers[i]);
+		}
+	}
+
+	@Override
+	public void init() {
+		for (Tier tier : mTiers) {
+			tier.mLoader.init();
+		}
+	}
+
+	@Override
+	public void load() {
+		for (Tier tier : mTiers) {
+			tier.mLoader.load();
+		}
+	}
+
+	@Override
+	public void unLoad() {
+		mQueue.shutdown();
+		EGISLog.i("tile chain unloaded, " + this);
+		for (Tier tier : mTiers) {
+			tier.mLoader.unLoad();
+		}
+	}
+
+	@Override
+	public void trimMemory(int level) {
+		for (Tier tier : mTiers) {
+			tier.mLoader.trimMemory(level);
+		}
+	}
+
+	/**
+	 * Give budget to each tier which has memory caches
+	 */
+	@Override
+	public void setMemoryBudget(TileMemoryBudget budget) {
+		for (Tier tier : mTiers) {
+			if (tier.mLoader instanceof BudgetedTileDataLoader) {
+				((BudgetedTileDataLoader) tier.mLoader).setMemoryBudget(budget);
+			}
+		}
+	}
+
+	@Override
+	public Tile getTile(int row, int col, int zoom) {
+		Tile tile = getCachedTile(row, col, zoom);
+		if (tile != null || isKnownMissing(row, col, zoom)) {
+			return tile;
+		}
+		long key = TileKey.pack(row, col, zoom);
+		PendingLoad pending;
+		while ((pending = mLoads.begin(key, null)) != null) {
+			mQueue.promote(key, TileLoadQueue.PRIORITY_REQUEST);
+			tile = pending.await();
+			if (tile != null || !pending.isCancelled()) {
+				return tile;
+			}
+			// Queued load left viewport, but caller still wants the tile
+		}
+		try {
+			tile = loadThroughTiers(row, col, zoom);
+		} finally {
+			mLoads.complete(key, tile);
+		}
+		return tile;
+	}
+
+	@Override
+	public Tile getCachedTile(int row, int col, int zoom) {
+		for (Tier tier : mTiers) {
+			Tile tile = tier.mLoader.getCachedTile(row, col, zoom);
+			if (tile != null) {
+				tier.mMemoryHits.incrementAndGet();
+				return tile;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public Tile getTileAsync(int row, int col, int zoom,
+			TileDataLoaderCallback callback) {
+		Tile tile = getCachedTile(row, col, zoom);
+		if (tile != null || isKnownMissing(row, col, zoom)) {
+			return tile;
+		}
+		long key = TileKey.pack(row, col, zoom);
+		if (mLoads.begin(key, callback) != null) {
+			// Queued prefetch of the tile now runs with requests
+			mQueue.promote(key, TileLoadQueue.PRIORITY_REQUEST);
+		} else {
+			schedule(key, TileLoadQueue.PRIORITY_REQUEST);
+		}
+		return null;
+	}
+
+	@Override
+	public Tile[] getTiles(TileRange range, TileDataLoaderCallback callback) {
+		Tile[] tiles = new Tile[range.count()];
+		long[] batch = new long[tiles.length];
+		int count = 0;
+		for (int row = range.startRow, i = 0; row <= range.endRow; row++) {
+			for (int col = range.startCol; col <= range.endCol; col++, i++) {
+				Tile tile = getCachedTile(row, col, range.zoom);
+				long key = TileKey.pack(row, col, range.zoom);
+				if (tile != null) {
+					tiles[i] = tile;
+				} else if (isKnownMissing(row, col, range.zoom)) {
+					continue;
+				} else if (mLoads.begin(key, callback) != null) {
+					mQueue.promote(key, TileLoadQueue.PRIORITY_REQUEST);
+				} else {
+					batch[count++] = key;
+				}
+			}
+		}
+		if (count > 0) {
+			scheduleBatch(batch, count);
+		}
+		return tiles;
+	}
+
+	@Override
+	public void prefetchTile(int row, int col, int zoom) {
+		if (getCachedTile(row, col, zoom) != null
+				|| isKnownMissing(row, col, zoom)) {
+			return;
+		}
+		long key = TileKey.pack(row, col, zoom);
+		if (mLoads.tryBegin(key)) {
+			schedule(key, TileLoadQueue.PRIORITY_PREFETCH);
+		}
+	}
+
+	/**
+	 * Own queue is ranked again when its next load is taken
+	 */
+	@Override
+	public void updateViewport(TileRange visible, TileRange target) {
+		mScheduler.setViewport(visible, target);
+		for (Tier tier : mTiers) {
+			tier.mLoader.updateViewport(visible, target);
+		}
+	}
+
+	/**
+	 *
+	 * @return count of tiers
+	 */
+	public int getTierCount() {
+		return mTiers.length;
+	}
+
+	public TileLayerDataLoader getTier(int index) {
+		return mTiers[index].mLoader;
+	}
+
+	/**
+	 *
+	 * @param index
+	 *            index of tier, 0 is the fastest
+	 * @return count of loads served by tier
+	 */
+	public int getHitCount(int index) {
+		return mTiers[index].mHits.get();
+	}
+
+	/**
+	 *
+	 * @param index
+	 *            index of tier, 0 is the fastest
+	 * @return count of tiles served from memory of tier without load
+	 */
+	public int getMemoryHitCount(int index) {
+		return mTiers[index].mMemoryHits.get();
+	}
+
+	/**
+	 *
+	 * @param index
+	 *            index of tier, 0 is the fastest
+	 * @return count of loads tier didn't have
+	 */
+	public int getMissCount(int index) {
+		return mTiers[index].mMisses.get();
+	}
+
+	/**
+	 *
+	 * @param index
+	 *            index of tier, 0 is the fastest
+	 * @return latencies of loads of tier, hits and misses
+	 */
+	public LatencyHistogram getLatency(int index) {
+		return mTiers[index].mLatency;
+	}
+
+	/**
+	 *
+	 * @return count of asynchronous loads dropped because they left viewport
+	 */
+	public int getCancelledLoadCount() {
+		return mQueue.getCancelledLoadCount();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("CompositeTileDataLoader[");
+		for (int i = 0; i < mTiers.length; i++) {
+			Tier tier = mTiers[i];
+			if (i > 0) {
+				sb.append("; ");
+			}
+			sb.append(tier.mLoader.getClass().getSimpleName())
+					.append(" memoryHits=").append(tier.mMemoryHits.get())
+					.append(" hits=").append(tier.mHits.get()).append(" misses=")
+					.append(tier.mMisses.get()).append(' ')
+					.append(tier.mLatency);
+		}
+		return sb.append(']').toString();
+	}
+
+	/**
+	 * Try tiers in order, write tile back to faster writable tiers
+	 */
+	private Tile loadThroughTiers(int row, int col, int zoom) {
+		for (int i = 0; i < mTiers.length; i++) {
+			Tile tile = loadFromTier(i, row, col, zoom);
+			if (tile != null) {
+				return tile;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Load tile from one tier, write it back to faster writable tiers
+	 */
+	private Tile loadFromTier(int index, int row, int col, int zoom) {
+		Tier tier = mTiers[index];
+		long start = System.nanoTime();
+		Tile tile = tier.mLoader.getTile(row, col, zoom);
+		tier.mLatency.record(System.nanoTime() - start);
+		if (tile == null) {
+			tier.mMisses.incrementAndGet();
+			return null;
+		}
+		tier.mHits.incrementAndGet();
+		for (int j = 0; j < index; j++) {
+			if (mTiers[j].mLoader instanceof WritableTileDataLoader) {
+				((WritableTileDataLoader) mTiers[j].mLoader).putTile(tile);
+			}
+		}
+		return tile;
+	}
+
+	/**
+	 * Keys of batch in read order of tier, tier may read them ahead
+	 *
+	 * @return keys, or new array of first count keys in read order
+	 */
+	private long[] readAhead(TileLayerDataLoader loader, long[] keys, int count) {
+		if (count < 2 || !(loader instanceof AbstractTileDataLoader)) {
+			return keys;
+		}
+		AbstractTileDataLoader tier = (AbstractTileDataLoader) loader;
+		long[] sorted = tier.sortByReadOrder(keys, count);
+		try {
+			tier.readAhead(sorted);
+		} catch (IOException e) {
+			// Tiles are still read one by one
+			EGISLog.w("read ahead of " + count + " tiles failed: "
+					+ e.getMessage());
+		}
+		return sorted;
+	}
+
+	/**
+	 * Queue load of registered key
+	 */
+	private void schedule(long key, int priority) {
+		mQueue.execute(new LoadTask(new long[] { key }, priority));
+	}
+
+	/**
+	 * Queue loads of registered keys, one run of neighbouring tiles per
+	 * worker
+	 */
+	private void scheduleBatch(long[] keys, int count) {
+		int runs = Math.min(WORKERS, count);
+		for (int run = 0, start = 0; run < runs; run++) {
+			int end = (int) ((long) count * (run + 1) / runs);
+			mQueue.execute(new LoadTask(Arrays.copyOfRange(keys, start, end),
+					TileLoadQueue.PRIORITY_REQUEST));
+			start = end;
+		}
+	}
+
+	/**
+	 * Tile which every tier knows it doesn't have. Tiers without negative
+	 * cache never know it.
+	 */
+	private boolean isKnownMissing(int row, int col, int zoom) {
+		for (Tier tier : mTiers) {
+			if (!(tier.mLoader instanceof AbstractTileDataLoader)
+					|| !((AbstractTileDataLoader) tier.mLoader)
+							.getMissingTiles().contains(row, col, zoom)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Loader of chain with its statistics
+	 */
+	private static class Tier {
+
+		final TileLayerDataLoader mLoader;
+
+		final AtomicInteger mMemoryHits = new AtomicInteger();
+
+		final AtomicInteger mHits = new AtomicInteger();
+
+		final AtomicInteger mMisses = new AtomicInteger();
+
+		final LatencyHistogram mLatency = new LatencyHistogram();
+
+		Tier(TileLayerDataLoader loader) {
+			this.mLoader = loader;
+		}
+	}
+
+	/**
+	 * Asynchronous load walking the chain, a tier gets tiles faster tiers
+	 * didn't have
+	 */
+	private class LoadTask extends TileLoadQueue.Task {
+
+		LoadTask(long[] keys, int priority) {
+			super(keys, priority, false, mScheduler);
+		}
+
+		@Override
+		protected void load() {
+			long[] keys = mKeys.clone();
+			int count = keys.length;
+			// Keys not completed are keys[0, kept) and keys[next, count)
+			int kept = 0;
+			int next = 0;
+			try {
+				for (int i = 0; i < mTiers.length && count > 0; i++) {
+					keys = readAhead(mTiers[i].mLoader, keys, count);
+					kept = 0;
+					for (next = 0; next < count; next++) {
+						long key = keys[next];
+						Tile tile = null;
+						if (mKeys.length > 1 && leftViewport(key)) {
+							// Part of bulk request which left viewport
+							mLoads.cancel(key);
+						} else {
+							tile = loadFromTier(i, TileKey.row(key),
+									TileKey.col(key), TileKey.zoom(key));
+							if (tile == null) {
+								// Next tier tries it
+								keys[kept++] = key;
+								continue;
+							}
+						}
+						mLoads.complete(key, tile);
+					}
+					count = kept;
+				}
+			} finally {
+				// Tiles no tier had, or not loaded
+				for (int i = 0; i < kept; i++) {
+					mLoads.complete(keys[i], null);
+				}
+				for (int i = next; i < count; i++) {
+					mLoads.complete(keys[i], null);
+				}
+			}
+		}
+
+		@Override
+		protected void cancel() {
+			for (long key : mKeys) {
+				mLoads.cancel(key);
+			}
+		}
+	}
+}
@@ -0,0 +1,377 @@
+package com.easygis.map.service;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.graphics.Bitmap;
+import android.support.v4.util.AtomicFile;
+
+import com.easygis.util.EGISLog;
+import com.easygis.util.LongLruCache;
+
+/**
+ * Disk tier of decoded tile pixels, skips PNG inflate on repeat visits.<br>
+ * <ul>
+ * Pixels live in fixed-size slots of one memory-mapped file, each slot is 8
+ * bytes tile key followed by raw pixels of one tile. Key is written after
+ * pixels, so a slot being overwritten never matches a tile.
+ * </ul>
+ * <ul>
+ * Which tile is in which slot is kept in LRU order and written to index file
+ * by {@link #flush()}. Cache survives process restarts, slots of tiles
+ * decoded after last flush are simply lost.
+ * </ul>
+ * All tiles must have same size and config.
+ *
+ * @author jiangzhen
+ *
+ */
+public class DecodedTileDiskCache {
+
+	/**
+	 * 'EGDC'
+	 */
+	private static final int MAGIC = 0x45474443;
+
+	private static final int VERSION = 1;
+
+	private static final int SLOT_HEADER_SIZE = 8;
+
+	private static final long EMPTY = -1;
+
+	private static final String DATA_FILE = "pixels.dat";
+
+	private static final String INDEX_FILE = "pixels.idx";
+
+	private int mWidth;
+
+	private int mHeight;
+
+	private Bitmap.Config mConfig;
+
+	private int mPixelBytes;
+
+	private int mSlotSize;
+
+	private int mSlotCount;
+
+	private RandomAccessFile mFile;
+
+	private MappedByteBuffer mData;
+
+	private AtomicFile mIndexFile;
+
+	private int[] mFreeSlots;
+
+	private int mFreeCount;
+
+	private boolean isDirty;
+
+	private int mHitCount;
+
+	private int mMissCount;
+
+	/**
+	 * Tile key to slot, evicted slots go back to free slots
+	 */
+	private LongLruCache<Integer> mSlots;
+
+	private DecodedTileDiskCache(int width, int height, Bitmap.Config config,
+			int slotCount) {
+		this.mWidth = width;
+		this.mHeight = height;
+		this.mConfig = config;
+		this.mPixelBytes = width * height * bytesPerPixel(config);
+		this.mSlotSize = SLOT_HEADER_SIZE + mPixelBytes;
+		this.mSlotCount = slotCount;
+		this.mFreeSlots = new int[slotCount];
+		this.mSlots = new LongLruCache<Integer>(slotCount, slotCount) {
+
+			@Override
+			protected void entryRemoved(boolean evicted, long key,
+					Integer oldValue, Integer newValue) {
+				if (oldValue != null && !oldValue.equals(newValue)) {
+					mData.putLong(oldValue * mSlotSize, EMPTY);
+					mFreeSlots[mFreeCount++] = oldValue;
+				}
+			}
+
+		};
+	}
+
+	/**
+	 * Open cache in directory, or create it if files don't exist or were
+	 * written for other tile format.
+	 *
+	 * @param dir
+	 *            cache directory
+	 * @param width
+	 *            width of decoded tile
+	 * @param height
+	 *            height of decoded tile
+	 * @param config
+	 *            config of decoded tile
+	 * @param maxBytes
+	 *            size limit of pixel file, at most 2GB
+	 * @return opened cache
+	 * @throws IOException
+	 */
+	public static DecodedTileDiskCache open(File dir, int width, int height,
+			Bitmap.Config config, long maxBytes) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("can't create " + dir);
+		}
+		long slotSize = SLOT_HEADER_SIZE + (long) width * height
+				* bytesPerPixel(config);
+		int slotCount = (int) Math.min(maxBytes, Integer.MAX_VALUE) / (int) slotSize;
+		if (slotCount <= 0) {
+			throw new IllegalArgumentException("maxBytes " + maxBytes
+					+ " is smaller than one tile");
+		}
+		DecodedTileDiskCache cache = new DecodedTileDiskCache(width, height,
+				config, slotCount);
+		cache.mIndexFile = new AtomicFile(new File(dir, INDEX_FILE));
+		cache.mFile = new RandomAccessFile(new File(dir, DATA_FILE), "rw");
+		try {
+			long size = (long) slotCount * cache.mSlotSize;
+			cache.mFile.setLength(size);
+			cache.mData = cache.mFile.getChannel().map(
+					FileChannel.MapMode.READ_WRITE, 0, size);
+			cache.readIndex();
+		} catch (IOException e) {
+			cache.close();
+			throw e;
+		}
+		return cache;
+	}
+
+	/**
+	 * Copy pixels of tile to bitmap.
+	 *
+	 * @param key
+	 *            tile key
+	 * @param target
+	 *            mutable bitmap of cache size and config
+	 * @return false if cache doesn't hold tile
+	 */
+	public synchronized boolean get(long key, Bitmap target) {
+		Integer slot = mData == null ? null : mSlots.get(key);
+		if (slot == null || !matches(target)) {
+			mMissCount++;
+			return false;
+		}
+		int offset = slot * mSlotSize;
+		if (mData.getLong(offset) != key) {
+			mSlots.remove(key);
+			mMissCount++;
+			return false;
+		}
+		target.copyPixelsFromBuffer(slice(offset));
+		mHitCount++;
+		return true;
+	}
+
+	/**
+	 * Write pixels of tile, evicting least recently used tile if cache is
+	 * full. Bitmaps of other size or config are ignored.
+	 *
+	 * @param key
+	 *            tile key
+	 * @param bitmap
+	 *            decoded tile
+	 */
+	public synchronized void put(long key, Bitmap bitmap) {
+		if (mData == null || !matches(bitmap) || mSlots.containsKey(key)) {
+			return;
+		}
+		if (mFreeCount == 0) {
+			mSlots.trimToSize(mSlotCount - 1);
+		}
+		int slot = mFreeSlots[--mFreeCount];
+		int offset = slot * mSlotSize;
+		mData.putLong(offset, EMPTY);
+		bitmap.copyPixelsToBuffer(slice(offset));
+		mData.putLong(offset, key);
+		mSlots.put(key, slot);
+		isDirty = true;
+	}
+
+	/**
+	 * Forget tile, call it when tile changes in storage.
+	 *
+	 * @param key
+	 *            tile key
+	 */
+	public synchronized void remove(long key) {
+		if (mData != null && mSlots.remove(key) != null) {
+			isDirty = true;
+		}
+	}
+
+	/**
+	 * Write index file, so cached tiles survive process restart.
+	 */
+	public synchronized void flush() {
+		if (mData == null || !isDirty) {
+			return;
+		}
+		mData.force();
+		FileOutputStream out = null;
+		try {
+			out = mIndexFile.startWrite();
+			DataOutputStream data = new DataOutputStream(out);
+			long[] keys = mSlots.keys();
+			data.writeInt(MAGIC);
+			data.writeInt(VERSION);
+			data.writeInt(mWidth);
+			data.writeInt(mHeight);
+			data.writeInt(mConfig.ordinal());
+			data.writeInt(mSlotCount);
+			data.writeInt(keys.length);
+			for (long key : keys) {
+				data.writeLong(key);
+				data.writeInt(mSlots.peek(key));
+			}
+			data.flush();
+			mIndexFile.finishWrite(out);
+			isDirty = false;
+		} catch (IOException e) {
+			EGISLog.e("write decoded tile index failed: " + e.getMessage());
+			if (out != null) {
+				mIndexFile.failWrite(out);
+			}
+		}
+	}
+
+	/**
+	 * Flush index and close pixel file.
+	 */
+	public synchronized void close() {
+		flush();
+		mData = null;
+		if (mFile != null) {
+			try {
+				mFile.close();
+			} catch (IOException e) {
+			}
+			mFile = null;
+		}
+	}
+
+	public int getTileWidth() {
+		return mWidth;
+	}
+
+	public int getTileHeight() {
+		return mHeight;
+	}
+
+	public Bitmap.Config getConfig() {
+		return mConfig;
+	}
+
+	/**
+	 *
+	 * @return count of tiles in cache
+	 */
+	public synchronized int count() {
+		return mSlots.count();
+	}
+
+	/**
+	 *
+	 * @return maximal count of tiles
+	 */
+	public int capacity() {
+		return mSlotCount;
+	}
+
+	public synchronized int hitCount() {
+		return mHitCount;
+	}
+
+	public synchronized int missCount() {
+		return mMissCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "DecodedTileDiskCache[" + mWidth + "x" + mHeight + " "
+				+ mConfig + ", tiles=" + mSlots.count() + "/" + mSlotCount
+				+ ", hits=" + mHitCount + ", misses=" + mMissCount + "]";
+	}
+
+	/**
+	 * Load slots of last flush, slots whose key doesn't match are dropped.
+	 */
+	private void readIndex() {
+		boolean[] used = new boolean[mSlotCount];
+		DataInputStream in = null;
+		try {
+			FileInputStream file = mIndexFile.openRead();
+			in = new DataInputStream(file);
+			if (in.readInt() == MAGIC && in.readInt() == VERSION
+					&& in.readInt() == mWidth && in.readInt() == mHeight
+					&& in.readInt() == mConfig.ordinal()
+					&& in.readInt() == mSlotCount) {
+				int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					long key = in.readLong();
+					int slot = in.readInt();
+					if (slot >= 0 && slot < mSlotCount && !used[slot]
+							&& mData.getLong(slot * mSlotSize) == key) {
+						used[slot] = true;
+						mSlots.put(key, slot);
+					}
+				}
+			}
+		} catch (IOException e) {
+			// No index or broken index, start empty
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		for (int slot = mSlotCount - 1; slot >= 0; slot--) {
+			if (!used[slot]) {
+				mFreeSlots[mFreeCount++] = slot;
+			}
+		}
+		EGISLog.i("decoded tile cache restored " + mSlots.count() + " tiles");
+	}
+
+	private ByteBuffer slice(int offset) {
+		ByteBuffer buffer = mData.duplicate();
+		buffer.position(offset + SLOT_HEADER_SIZE);
+		buffer.limit(offset + SLOT_HEADER_SIZE + mPixelBytes);
+		return buffer.slice();
+	}
+
+	private boolean matches(Bitmap bitmap) {
+		return bitmap.getWidth() == mWidth && bitmap.getHeight() == mHeight
+				&& bitmap.getConfig() == mConfig;
+	}
+
+	private static int bytesPerPixel(Bitmap.Config config) {
+		switch (config) {
+		case ALPHA_8:
+			return 1;
+		case RGB_565:
+		case ARGB_4444:
+			return 2;
+		default:
+			return 4;
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package com.easygis.map.service;
+
+import java.io.IOException;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.easygis.map.MapInfo;
+import com.easygis.map.TileKey;
+import com.easygis.util.LongLruCache;
+
+/**
+ * Base of tile loaders which read encoded PNG or JPEG bytes from storage.<br>
+ * <ul>
+ * Encoded bytes are kept in a second memory tier behind decoded tile cache.
+ * Encoded tile is 10 to 20 times smaller than its bitmap, so this tier holds
+ * many more tiles and a miss of decoded cache costs a decode but no I/O.
+ * </ul>
+ * Subclass only need to implement {@link #readTile(int, int, int)}.
+ * 
+ * @author jiangzhen
+ * 
+ */
+public abstract class EncodedTileDataLoader extends AbstractTileDataLoader {
+
+	private LongLruCache<byte[]> mEncodedTiles = new LongLruCache<byte[]>(
+			TileMemoryBudget.fromRuntime().getEncodedSize(), 256) {
+
+		@Override
+		protected int sizeOf(long key, byte[] value) {
+			return value.length;
+		}
+
+	};
+
+	public EncodedTileDataLoader(MapInfo mMapInfo) {
+		super(mMapInfo);
+	}
+
+	/**
+	 * Read encoded tile from storage.<br>
+	 * Called from decode worker, may be called concurrently for different
+	 * tiles.
+	 * 
+	 * @param row
+	 *            row of tile
+	 * @param col
+	 *            column of tile
+	 * @param zoom
+	 *            zoom level
+	 * @return null if storage doesn't have this tile or read failed
+	 * @throws IOException
+	 *             if storage can't be read now but may be later
+	 */
+	protected abstract byte[] readTile(int row, int col, int zoom)
+			throws IOException;
+
+	@Override
+	protected final Bitmap decodeTile(int row, int col, int zoom,
+			BitmapFactory.Options options) throws IOException {
+		long key = TileKey.pack(row, col, zoom);
+		byte[] data = mEncodedTiles.get(key);
+		if (data != null && isExpired(key)) {
+			mEncodedTiles.remove(key);
+			data = null;
+		}
+		if (data == null) {
+			data = readTile(row, col, zoom);
+			if (data == null) {
+				return null;
+			}
+			mEncodedTiles.put(key, data);
+		}
+		return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+	}
+
+	/**
+	 * Encoded tier is trimmed less than decoded tiles, it's much smaller per
+	 * tile: half on RUNNING_LOW, 1/4 on critical levels, all on MODERATE.
+	 */
+	@Override
+	public void trimMemory(int level) {
+		super.trimMemory(level);
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+			mEncodedTiles.evictAll();
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+			mEncodedTiles.trimToSize(mEncodedTiles.maxSize() / 4);
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+			mEncodedTiles.trimToSize(mEncodedTiles.maxSize() / 2);
+		}
+	}
+
+	@Override
+	public void setMemoryBudget(TileMemoryBudget budget) {
+		super.setMemoryBudget(budget);
+		mEncodedTiles.resize(budget.getEncodedSize());
+	}
+
+	/**
+	 * Keep encoded bytes read ahead of decode, such as by a merged read of
+	 * neighbouring tiles in {@link #readAhead(long[])}.
+	 * 
+	 * @param key
+	 *            tile key
+	 * @param data
+	 *            encoded tile
+	 */
+	protected void putEncodedTile(long key, byte[] data) {
+		mEncodedTiles.put(key, data);
+	}
+
+	/**
+	 * 
+	 * @param key
+	 *            tile key
+	 * @return true if encoded bytes of tile are in memory
+	 */
+	protected boolean hasEncodedTile(long key) {
+		return mEncodedTiles.peek(key) != null;
+	}
+
+	/**
+	 * Forget encoded bytes of tile, call it when tile changes in storage.
+	 * 
+	 * @param row
+	 * @param col
+	 * @param zoom
+	 */
+	public void invalidateEncodedTile(int row, int col, int zoom) {
+		mEncodedTiles.remove(TileKey.pack(row, col, zoom));
+	}
+
+	/**
+	 * 
+	 * @return bytes of encoded tiles in memory
+	 */
+	public int getEncodedCacheSize() {
+		return mEncodedTiles.size();
+	}
+
+	public int getEncodedHitCount() {
+		return mEncodedTiles.hitCount();
+	}
+
+	public int getEncodedMissCount() {
+		return mEncodedTiles.missCount();
+	}
+}
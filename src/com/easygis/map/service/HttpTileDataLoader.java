@@ -0,0 +1,619 @@
+package com.easygis.map.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.easygis.map.MapInfo;
+import com.easygis.map.TileKey;
+import com.easygis.util.EGISLog;
+import com.easygis.util.LongLruCache;
+
+/**
+ * Load tiles from HTTP server by URL template, such as
+ * http://tile.example.com/{z}/{x}/{y}.png.<br>
+ * <ul>
+ * {z} is zoom level, {x} is column and {y} is row of tile, counted from top
+ * for {@link RowOrder#XYZ} and from bottom for {@link RowOrder#TMS}.
+ * </ul>
+ * <ul>
+ * Requests are bounded by {@link #setMaxConcurrentRequests(int)}, each
+ * response is read to the end so its keep-alive connection goes back to
+ * connection pool of {@link HttpURLConnection} and is reused by next request.
+ * Requests are not pipelined, HttpURLConnection sends one request per
+ * connection at a time.
+ * </ul>
+ * <ul>
+ * Downloaded tiles are written through to cache directory with their ETag,
+ * Last-Modified and expire time. Fresh tiles are read from disk without
+ * request, stale tiles are revalidated by a conditional request, and are
+ * still used when server can't be reached.
+ * </ul>
+ * <ul>
+ * Expire time of each downloaded tile is also remembered for memory tiers,
+ * expired decoded and encoded tiles are loaded again, so tiles of working
+ * set are revalidated too. Tile just fetched stays fresh in memory for at
+ * least {@link #setMinMemoryFreshness(long)}, so no-cache or max-age=0 tiles
+ * aren't downloaded again on each pan; such headers apply to disk copy and
+ * next load after eviction.
+ * </ul>
+ *
+ * @author jiangzhen
+ *
+ */
+public class HttpTileDataLoader extends EncodedTileDataLoader {
+
+	/**
+	 * Row order of {y} in URL template
+	 */
+	public enum RowOrder {
+		/**
+		 * Row 0 is the top row, used by OSM and Google like servers
+		 */
+		XYZ,
+		/**
+		 * Row 0 is the bottom row, used by TMS servers
+		 */
+		TMS
+	}
+
+	/**
+	 * 'EGHT'
+	 */
+	private static final int MAGIC = 0x45474854;
+
+	private static final int VERSION = 1;
+
+	private static final int DEFAULT_MAX_REQUESTS = 4;
+
+	private static final int CONNECT_TIMEOUT_MS = 10000;
+
+	private static final int READ_TIMEOUT_MS = 15000;
+
+	/**
+	 * Freshness of tiles whose response has no Cache-Control or Expires
+	 */
+	private static final long DEFAULT_MAX_AGE_MS = 24 * 60 * 60 * 1000L;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Expire times kept for tiles in memory, more than memory tiers hold
+	 */
+	private static final int MAX_EXPIRE_RECORDS = 8192;
+
+	/**
+	 * Stale tile served offline is fresh for this long, so server isn't
+	 * tried again on each lookup
+	 */
+	private static final long OFFLINE_RETRY_MS = 60 * 1000L;
+
+	/**
+	 * Least time a fetched tile is used from memory, by default
+	 */
+	private static final long DEFAULT_MIN_MEMORY_FRESH_MS = 5 * 60 * 1000L;
+
+	private String mUrlTemplate;
+
+	private RowOrder mRowOrder;
+
+	private volatile File mCacheDir;
+
+	private volatile long mDefaultMaxAge = DEFAULT_MAX_AGE_MS;
+
+	private volatile long mMinMemoryFresh = DEFAULT_MIN_MEMORY_FRESH_MS;
+
+	private volatile String mUserAgent;
+
+	private Semaphore mRequests = new Semaphore(DEFAULT_MAX_REQUESTS, true);
+
+	private int mMaxRequests = DEFAULT_MAX_REQUESTS;
+
+	private AtomicInteger mRequestCount = new AtomicInteger();
+
+	private AtomicInteger mNotModifiedCount = new AtomicInteger();
+
+	private AtomicInteger mDiskHitCount = new AtomicInteger();
+
+	private AtomicInteger mStaleServedCount = new AtomicInteger();
+
+	private AtomicLong mBytesDownloaded = new AtomicLong();
+
+	private AtomicLong mRequestNanos = new AtomicLong();
+
+	/**
+	 * Expire time of tiles by key, tiles without record are fresh
+	 */
+	private LongLruCache<Long> mExpires = new LongLruCache<Long>(
+			MAX_EXPIRE_RECORDS);
+
+	/**
+	 * URL template is mMapInfo.mTilePath, rows in XYZ order
+	 *
+	 * @param mMapInfo
+	 */
+	public HttpTileDataLoader(MapInfo mMapInfo) {
+		this(mMapInfo, mMapInfo.mTilePath, RowOrder.XYZ);
+	}
+
+	/**
+	 *
+	 * @param mMapInfo
+	 * @param urlTemplate
+	 *            URL with {z}, {x} and {y}
+	 * @param rowOrder
+	 *            order of {y}
+	 */
+	public HttpTileDataLoader(MapInfo mMapInfo, String urlTemplate,
+			RowOrder rowOrder) {
+		super(mMapInfo);
+		if (urlTemplate == null) {
+			throw new NullPointerException("urlTemplate == null");
+		}
+		this.mUrlTemplate = urlTemplate;
+		this.mRowOrder = rowOrder;
+	}
+
+	@Override
+	protected byte[] readTile(int row, int col, int zoom) throws IOException {
+		return fetchTile(row, col, zoom);
+	}
+
+	/**
+	 * Get encoded tile from cache directory or server, called from decode
+	 * worker or to download tiles for offline use.
+	 *
+	 * @param row
+	 *            row of tile
+	 * @param col
+	 *            column of tile
+	 * @param zoom
+	 *            zoom level
+	 * @return null if server doesn't have this tile
+	 * @throws IOException
+	 *             if server can't be reached and tile is not cached
+	 */
+	public byte[] fetchTile(int row, int col, int zoom) throws IOException {
+		long key = TileKey.pack(row, col, zoom);
+		File file = cacheFile(row, col, zoom);
+		CachedTile cached = file != null ? readCache(file) : null;
+		long now = System.currentTimeMillis();
+		if (cached != null && now < cached.mExpires) {
+			mDiskHitCount.incrementAndGet();
+			keepInMemory(key, cached.mExpires);
+			return cached.mData;
+		}
+		try {
+			mRequests.acquire();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("interrupted waiting request");
+		}
+		try {
+			CachedTile tile = request(tileUrl(row, col, zoom), cached, file);
+			if (tile == null) {
+				mExpires.remove(key);
+				return null;
+			}
+			keepInMemory(key, tile.mExpires);
+			return tile.mData;
+		} catch (IOException e) {
+			if (cached != null) {
+				// Offline, stale tile is better than no tile
+				mStaleServedCount.incrementAndGet();
+				keepInMemory(key, now + OFFLINE_RETRY_MS);
+				return cached.mData;
+			}
+			throw e;
+		} finally {
+			mRequests.release();
+		}
+	}
+
+	/**
+	 * Build URL of tile from template.
+	 *
+	 * @param row
+	 * @param col
+	 * @param zoom
+	 * @return URL of tile
+	 */
+	public String tileUrl(int row, int col, int zoom) {
+		int y = mRowOrder == RowOrder.TMS ? (1 << zoom) - 1 - row : row;
+		return mUrlTemplate.replace("{z}", Integer.toString(zoom))
+				.replace("{x}", Integer.toString(col))
+				.replace("{y}", Integer.toString(y));
+	}
+
+	/**
+	 * Write downloaded tiles to directory, null disables disk cache.
+	 *
+	 * @param dir
+	 *            cache directory
+	 */
+	public void setCacheDir(File dir) {
+		this.mCacheDir = dir;
+	}
+
+	public File getCacheDir() {
+		return mCacheDir;
+	}
+
+	/**
+	 * Set how many requests run at same time, which is also count of
+	 * keep-alive connections in use. Keep it at or below http.maxConnections,
+	 * 5 by default, or connections beyond it are closed after use. Lowering
+	 * it waits for running requests.
+	 *
+	 * @param count
+	 *            count of requests, default is 4
+	 */
+	public synchronized void setMaxConcurrentRequests(int count) {
+		if (count <= 0) {
+			throw new IllegalArgumentException("count <= 0");
+		}
+		if (count > mMaxRequests) {
+			mRequests.release(count - mMaxRequests);
+		} else if (count < mMaxRequests) {
+			// Running requests give their permits back later
+			mRequests.acquireUninterruptibly(mMaxRequests - count);
+		}
+		mMaxRequests = count;
+	}
+
+	/**
+	 * Set how long tiles are fresh when server sends no Cache-Control or
+	 * Expires header.
+	 *
+	 * @param maxAge
+	 *            milliseconds, default is one day
+	 */
+	public void setDefaultMaxAge(long maxAge) {
+		this.mDefaultMaxAge = maxAge;
+	}
+
+	/**
+	 * Set least time a fetched tile is used from memory tiers, even if its
+	 * response allows no caching.
+	 *
+	 * @param minFresh
+	 *            milliseconds, default is five minutes
+	 */
+	public void setMinMemoryFreshness(long minFresh) {
+		this.mMinMemoryFresh = Math.max(0, minFresh);
+	}
+
+	public void setUserAgent(String userAgent) {
+		this.mUserAgent = userAgent;
+	}
+
+	/**
+	 *
+	 * @return count of HTTP requests, conditional requests included
+	 */
+	public int getRequestCount() {
+		return mRequestCount.get();
+	}
+
+	/**
+	 *
+	 * @return count of revalidations answered by 304 Not Modified
+	 */
+	public int getNotModifiedCount() {
+		return mNotModifiedCount.get();
+	}
+
+	/**
+	 *
+	 * @return count of fresh tiles read from cache directory without request
+	 */
+	public int getDiskHitCount() {
+		return mDiskHitCount.get();
+	}
+
+	/**
+	 *
+	 * @return count of stale tiles used because server couldn't be reached
+	 */
+	public int getStaleServedCount() {
+		return mStaleServedCount.get();
+	}
+
+	public long getBytesDownloaded() {
+		return mBytesDownloaded.get();
+	}
+
+	/**
+	 *
+	 * @return average milliseconds of HTTP requests
+	 */
+	public double getAverageRequestTime() {
+		int count = mRequestCount.get();
+		return count == 0 ? 0 : mRequestNanos.get() / 1e6 / count;
+	}
+
+	/**
+	 * Remember when tile in memory must be loaded again
+	 */
+	private void keepInMemory(long key, long expires) {
+		mExpires.put(key, Math.max(expires, System.currentTimeMillis()
+				+ mMinMemoryFresh));
+	}
+
+	/**
+	 * Expired tile in memory is revalidated, its encoded bytes are dropped
+	 * too.
+	 */
+	@Override
+	protected boolean isExpired(long key) {
+		Long expires = mExpires.peek(key);
+		if (expires == null || System.currentTimeMillis() < expires) {
+			return false;
+		}
+		mExpires.remove(key);
+		invalidateEncodedTile(TileKey.row(key), TileKey.col(key),
+				TileKey.zoom(key));
+		return true;
+	}
+
+	/**
+	 *
+	 * @return tile with expire time, 0 if it must not be kept; null if
+	 *         server doesn't have tile
+	 */
+	private CachedTile request(String url, CachedTile cached, File file)
+			throws IOException {
+		long start = System.nanoTime();
+		HttpURLConnection conn = (HttpURLConnection) new URL(url)
+				.openConnection();
+		try {
+			conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+			conn.setReadTimeout(READ_TIMEOUT_MS);
+			conn.setUseCaches(false);
+			if (mUserAgent != null) {
+				conn.setRequestProperty("User-Agent", mUserAgent);
+			}
+			if (cached != null) {
+				if (cached.mETag.length() > 0) {
+					conn.setRequestProperty("If-None-Match", cached.mETag);
+				}
+				if (cached.mLastModified.length() > 0) {
+					conn.setRequestProperty("If-Modified-Since",
+							cached.mLastModified);
+				}
+			}
+			int code = conn.getResponseCode();
+			if (code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+				mNotModifiedCount.incrementAndGet();
+				drain(conn.getInputStream());
+				long expires = expires(conn);
+				cached.mExpires = Math.max(0, expires);
+				if (expires >= 0 && file != null) {
+					writeCache(file, cached);
+				}
+				return cached;
+			}
+			if (code == HttpURLConnection.HTTP_OK) {
+				byte[] data = readFully(conn.getInputStream());
+				mBytesDownloaded.addAndGet(data.length);
+				long expires = expires(conn);
+				CachedTile tile = new CachedTile();
+				tile.mData = data;
+				tile.mExpires = Math.max(0, expires);
+				tile.mETag = header(conn, "ETag");
+				tile.mLastModified = header(conn, "Last-Modified");
+				if (file != null && expires >= 0) {
+					writeCache(file, tile);
+				} else if (file != null && cached != null) {
+					// no-store, old copy must not be used any more
+					file.delete();
+				}
+				return tile;
+			}
+			// Read error body, or connection can't be reused
+			drain(conn.getErrorStream());
+			if (code == HttpURLConnection.HTTP_NOT_FOUND
+					|| code == HttpURLConnection.HTTP_NO_CONTENT
+					|| code == HttpURLConnection.HTTP_GONE) {
+				if (file != null) {
+					file.delete();
+				}
+				return null;
+			}
+			throw new IOException("HTTP " + code + " " + url);
+		} finally {
+			mRequestCount.incrementAndGet();
+			mRequestNanos.addAndGet(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Expire time by Cache-Control, then Expires, then default max age
+	 *
+	 * @return -1 if response must not be stored
+	 */
+	private long expires(HttpURLConnection conn) {
+		long now = System.currentTimeMillis();
+		String cacheControl = conn.getHeaderField("Cache-Control");
+		if (cacheControl != null) {
+			long maxAge = -1;
+			for (String directive : cacheControl.split(",")) {
+				directive = directive.trim().toLowerCase(Locale.US);
+				if (directive.equals("no-store")) {
+					return -1;
+				} else if (directive.equals("no-cache")) {
+					maxAge = 0;
+				} else if (directive.startsWith("max-age=") && maxAge != 0) {
+					try {
+						maxAge = Long.parseLong(directive.substring(8)) * 1000;
+					} catch (NumberFormatException e) {
+						maxAge = 0;
+					}
+				}
+			}
+			if (maxAge >= 0) {
+				return now + maxAge;
+			}
+		}
+		long expires = conn.getExpiration();
+		if (expires > 0) {
+			long date = conn.getDate();
+			// Expires is relative to server clock
+			return date > 0 ? now + Math.max(0, expires - date) : expires;
+		}
+		return now + mDefaultMaxAge;
+	}
+
+	private File cacheFile(int row, int col, int zoom) {
+		File dir = mCacheDir;
+		if (dir == null) {
+			return null;
+		}
+		return new File(dir, zoom + "/" + row + "_" + col + ".tile");
+	}
+
+	/**
+	 *
+	 * @return null if file doesn't exist or is broken
+	 */
+	private CachedTile readCache(File file) {
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return null;
+			}
+			CachedTile tile = new CachedTile();
+			tile.mExpires = in.readLong();
+			tile.mETag = in.readUTF();
+			tile.mLastModified = in.readUTF();
+			tile.mData = new byte[in.readInt()];
+			in.readFully(tile.mData);
+			return tile;
+		} catch (FileNotFoundException e) {
+			return null;
+		} catch (IOException e) {
+			EGISLog.w("broken tile cache " + file + ": " + e.getMessage());
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write through temp file and rename, so readers never see half a file
+	 */
+	private void writeCache(File file, CachedTile tile) {
+		File temp = new File(file.getPath() + "."
+				+ Thread.currentThread().getId() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			File dir = file.getParentFile();
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				throw new IOException("can't create " + dir);
+			}
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(temp)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(tile.mExpires);
+			out.writeUTF(tile.mETag);
+			out.writeUTF(tile.mLastModified);
+			out.writeInt(tile.mData.length);
+			out.write(tile.mData);
+			out.close();
+			out = null;
+			if (!temp.renameTo(file)) {
+				file.delete();
+				if (!temp.renameTo(file)) {
+					throw new IOException("can't rename " + temp);
+				}
+			}
+		} catch (IOException e) {
+			EGISLog.w("write tile cache " + file + " failed: "
+					+ e.getMessage());
+			temp.delete();
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+				temp.delete();
+			}
+		}
+	}
+
+	private static String header(HttpURLConnection conn, String name) {
+		String value = conn.getHeaderField(name);
+		return value != null ? value : "";
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read body to the end and close it, connection goes back to pool
+	 */
+	private static void drain(InputStream in) {
+		if (in == null) {
+			return;
+		}
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while (in.read(buffer) != -1) {
+			}
+		} catch (IOException e) {
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * Tile in cache directory
+	 */
+	private static class CachedTile {
+
+		long mExpires;
+
+		String mETag;
+
+		String mLastModified;
+
+		byte[] mData;
+	}
+}
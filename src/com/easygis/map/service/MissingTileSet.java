@@ -0,0 +1,139 @@
+package com.easygis.map.service;
+
+import com.easygis.map.TileKey;
+import com.easygis.util.LongLruCache;
+
+/**
+ * Negative cache of tiles which storage doesn't have.<br>
+ * <p>
+ * Missing tiles are recorded in bitset pages, each page covers 64x64 tiles
+ * of one zoom level in 512 bytes. Sparse caches and ocean areas cluster
+ * missing tiles, so a few pages cover large empty regions.
+ * </p>
+ * Least recently used pages are evicted when page limit is reached, which
+ * only means these tiles are looked up from storage again.
+ * 
+ * @author jiangzhen
+ * 
+ */
+public class MissingTileSet {
+
+	private static final int PAGE_SHIFT = 6;
+
+	private static final int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+
+	private LongLruCache<long[]> mPages;
+
+	private int mHitCount;
+
+	/**
+	 * 
+	 * @param maxPages
+	 *            maximal count of pages, each page holds 512 bytes
+	 */
+	public MissingTileSet(int maxPages) {
+		mPages = new LongLruCache<long[]>(maxPages);
+	}
+
+	/**
+	 * 
+	 * @param row
+	 * @param col
+	 * @param zoom
+	 * @return true if tile is known missing
+	 */
+	public synchronized boolean contains(int row, int col, int zoom) {
+		long[] page = mPages.get(pageKey(row, col, zoom));
+		if (page == null) {
+			return false;
+		}
+		if ((page[row & PAGE_MASK] & (1L << (col & PAGE_MASK))) == 0) {
+			return false;
+		}
+		mHitCount++;
+		return true;
+	}
+
+	/**
+	 * Record missing tile
+	 * 
+	 * @param row
+	 * @param col
+	 * @param zoom
+	 */
+	public synchronized void add(int row, int col, int zoom) {
+		long key = pageKey(row, col, zoom);
+		long[] page = mPages.get(key);
+		if (page == null) {
+			page = new long[1 << PAGE_SHIFT];
+			mPages.put(key, page);
+		}
+		page[row & PAGE_MASK] |= 1L << (col & PAGE_MASK);
+	}
+
+	/**
+	 * Forget missing tile, for example tile is downloaded to storage.
+	 * 
+	 * @param row
+	 * @param col
+	 * @param zoom
+	 */
+	public synchronized void invalidate(int row, int col, int zoom) {
+		long[] page = mPages.peek(pageKey(row, col, zoom));
+		if (page != null) {
+			page[row & PAGE_MASK] &= ~(1L << (col & PAGE_MASK));
+		}
+	}
+
+	/**
+	 * Forget all missing tiles of zoom level
+	 * 
+	 * @param zoom
+	 */
+	public synchronized void invalidateZoom(final int zoom) {
+		mPages.evict(new LongLruCache.KeyFilter() {
+
+			@Override
+			public boolean accept(long key) {
+				return TileKey.zoom(key) == zoom;
+			}
+
+		});
+	}
+
+	/**
+	 * Forget all missing tiles
+	 */
+	public synchronized void invalidateAll() {
+		mPages.evictAll();
+	}
+
+	/**
+	 * 
+	 * @param maxPages
+	 *            new page limit
+	 */
+	public void resize(int maxPages) {
+		mPages.resize(maxPages);
+	}
+
+	/**
+	 * 
+	 * @return count of lookups answered without storage access
+	 */
+	public synchronized int hitCount() {
+		return mHitCount;
+	}
+
+	/**
+	 * 
+	 * @return count of pages in memory
+	 */
+	public int pageCount() {
+		return mPages.count();
+	}
+
+	private static long pageKey(int row, int col, int zoom) {
+		return TileKey.pack(row >> PAGE_SHIFT, col >> PAGE_SHIFT, zoom);
+	}
+}
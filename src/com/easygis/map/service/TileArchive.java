@@ -0,0 +1,159 @@
+package com.easygis.map.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.easygis.map.TileKey;
+
+/**
+ * Single file tile archive, read through memory mapping.<br>
+ * <p>
+ * File layout, all numbers are big endian:
+ * <ul>
+ * header: int magic 'EGTA', int version, int count of tiles, int reserved
+ * </ul>
+ * <ul>
+ * index: count entries of {long tile key, long offset, int length}, sorted
+ * by tile key. Tile key is {@link TileKey} packed (zoom, row, col).
+ * </ul>
+ * <ul>
+ * data: encoded tile images, offset is from start of file
+ * </ul>
+ * </p>
+ * Whole file is mapped once, so archive is limited to 2GB.
+ * 
+ * @see TileArchiveBuilder
+ * @author jiangzhen
+ * 
+ */
+public class TileArchive {
+
+	public static final int MAGIC = 0x45475441;
+
+	public static final int VERSION = 1;
+
+	public static final int HEADER_SIZE = 16;
+
+	public static final int ENTRY_SIZE = 20;
+
+	private MappedByteBuffer mBuffer;
+
+	private int mCount;
+
+	private File mFile;
+
+	private TileArchive(File file, MappedByteBuffer buffer, int count) {
+		this.mFile = file;
+		this.mBuffer = buffer;
+		this.mCount = count;
+	}
+
+	/**
+	 * Map archive file
+	 * 
+	 * @param file
+	 *            archive file
+	 * @return opened archive
+	 * @throws IOException
+	 *             if file can't be read or format is wrong
+	 */
+	public static TileArchive open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long length = channel.size();
+			if (length > Integer.MAX_VALUE) {
+				throw new IOException(file + " is larger than 2GB");
+			}
+			if (length < HEADER_SIZE) {
+				throw new IOException(file + " is not a tile archive");
+			}
+			MappedByteBuffer buffer = channel.map(
+					FileChannel.MapMode.READ_ONLY, 0, length);
+			if (buffer.getInt(0) != MAGIC) {
+				throw new IOException(file + " is not a tile archive");
+			}
+			if (buffer.getInt(4) != VERSION) {
+				throw new IOException(file + " unsupported version "
+						+ buffer.getInt(4));
+			}
+			int count = buffer.getInt(8);
+			if (count < 0
+					|| HEADER_SIZE + (long) count * ENTRY_SIZE > length) {
+				throw new IOException(file + " index is broken");
+			}
+			return new TileArchive(file, buffer, count);
+		} finally {
+			// Mapping is still valid after channel is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Binary search tile in index
+	 * 
+	 * @param key
+	 *            packed tile key
+	 * @return index of entry, -1 if archive doesn't hold this tile
+	 */
+	public int find(long key) {
+		int low = 0;
+		int high = mCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long midKey = keyAt(mid);
+			if (midKey < key) {
+				low = mid + 1;
+			} else if (midKey > key) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	public long keyAt(int entry) {
+		return mBuffer.getLong(HEADER_SIZE + entry * ENTRY_SIZE);
+	}
+
+	public long offsetAt(int entry) {
+		return mBuffer.getLong(HEADER_SIZE + entry * ENTRY_SIZE + 8);
+	}
+
+	public int lengthAt(int entry) {
+		return mBuffer.getInt(HEADER_SIZE + entry * ENTRY_SIZE + 16);
+	}
+
+	/**
+	 * Get encoded bytes of tile without copying.
+	 * 
+	 * @param entry
+	 *            index of entry
+	 * @return view of mapped bytes, position is 0. Returned buffer is not
+	 *         shared with other callers.
+	 */
+	public ByteBuffer slice(int entry) {
+		ByteBuffer view = mBuffer.duplicate();
+		int offset = (int) offsetAt(entry);
+		view.limit(offset + lengthAt(entry));
+		view.position(offset);
+		return view.slice();
+	}
+
+	/**
+	 * 
+	 * @return count of tiles in archive
+	 */
+	public int size() {
+		return mCount;
+	}
+
+	public File getFile() {
+		return mFile;
+	}
+}
@@ -0,0 +1,179 @@
+package com.easygis.map.service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.easygis.map.TileKey;
+
+/**
+ * Convert tile directory to {@link TileArchive}.<br>
+ * Directory layout is the same as {@link LocalTileDataLoader}:
+ * tileDir/zoom/row_col.extension
+ * 
+ * @author jiangzhen
+ * 
+ */
+public class TileArchiveBuilder {
+
+	private TileArchiveBuilder() {
+	}
+
+	/**
+	 * Build archive from tile directory
+	 * 
+	 * @param tileDir
+	 *            root of tile directory
+	 * @param extension
+	 *            tile file extension, like png
+	 * @param archive
+	 *            output file
+	 * @return count of tiles in archive
+	 * @throws IOException
+	 */
+	public static int build(File tileDir, String extension, File archive)
+			throws IOException {
+		List<Entry> entries = scan(tileDir, extension);
+		long offset = TileArchive.HEADER_SIZE + (long) entries.size()
+				* TileArchive.ENTRY_SIZE;
+		for (Entry entry : entries) {
+			entry.offset = offset;
+			offset += entry.length;
+		}
+		if (offset > Integer.MAX_VALUE) {
+			throw new IOException("Tiles of " + tileDir
+					+ " exceed 2GB, split them into several archives");
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(archive), 64 * 1024));
+		try {
+			out.writeInt(TileArchive.MAGIC);
+			out.writeInt(TileArchive.VERSION);
+			out.writeInt(entries.size());
+			out.writeInt(0);
+			for (Entry entry : entries) {
+				out.writeLong(entry.key);
+				out.writeLong(entry.offset);
+				out.writeInt(entry.length);
+			}
+			byte[] buffer = new byte[16 * 1024];
+			for (Entry entry : entries) {
+				copy(entry.file, entry.length, out, buffer);
+			}
+		} finally {
+			out.close();
+		}
+		return entries.size();
+	}
+
+	private static List<Entry> scan(File tileDir, String extension)
+			throws IOException {
+		File[] zoomDirs = tileDir.listFiles();
+		if (zoomDirs == null) {
+			throw new IOException(tileDir + " is not a directory");
+		}
+		String suffix = "." + extension;
+		List<Entry> entries = new ArrayList<Entry>();
+		for (File zoomDir : zoomDirs) {
+			int zoom = parse(zoomDir.getName());
+			File[] files = zoomDir.listFiles();
+			if (zoom < 0 || files == null) {
+				continue;
+			}
+			for (File file : files) {
+				String name = file.getName();
+				if (!name.endsWith(suffix)) {
+					continue;
+				}
+				name = name.substring(0, name.length() - suffix.length());
+				int split = name.indexOf('_');
+				if (split < 0) {
+					continue;
+				}
+				int row = parse(name.substring(0, split));
+				int col = parse(name.substring(split + 1));
+				if (!TileKey.isValid(row, col, zoom)) {
+					continue;
+				}
+				if (file.length() > Integer.MAX_VALUE) {
+					throw new IOException(file + " is too large");
+				}
+				entries.add(new Entry(TileKey.pack(row, col, zoom), file,
+						(int) file.length()));
+			}
+		}
+		Collections.sort(entries, new Comparator<Entry>() {
+
+			@Override
+			public int compare(Entry lhs, Entry rhs) {
+				return lhs.key < rhs.key ? -1 : (lhs.key == rhs.key ? 0 : 1);
+			}
+
+		});
+		return entries;
+	}
+
+	private static void copy(File file, int length, DataOutputStream out,
+			byte[] buffer) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			int remaining = length;
+			while (remaining > 0) {
+				int read = in.read(buffer, 0, Math.min(buffer.length, remaining));
+				if (read < 0) {
+					throw new IOException(file + " is changed during build");
+				}
+				out.write(buffer, 0, read);
+				remaining -= read;
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static int parse(String value) {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Build archive from command line:<br>
+	 * TileArchiveBuilder tileDir extension archiveFile
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 3) {
+			System.err
+					.println("Usage: TileArchiveBuilder <tileDir> <extension> <archive>");
+			System.exit(1);
+		}
+		long start = System.currentTimeMillis();
+		int count = build(new File(args[0]), args[1], new File(args[2]));
+		System.out.println(count + " tiles written to " + args[2] + " in "
+				+ (System.currentTimeMillis() - start) + "ms");
+	}
+
+	static class Entry {
+		long key;
+		File file;
+		int length;
+		long offset;
+
+		Entry(long key, File file, int length) {
+			this.key = key;
+			this.file = file;
+			this.length = length;
+		}
+	}
+}
@@ -0,0 +1,275 @@
+package com.easygis.map.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import android.graphics.Bitmap;
+
+import com.easygis.map.Tile;
+
+/**
+ * Process-wide decoded tile cache shared by loaders of same source.<br>
+ * <ul>
+ * Each source id gets one {@link TileMemoryCache}, keyed by tile key. Two
+ * map views, or a main map and an overview map of same source, share tiles
+ * instead of decoding them twice.
+ * </ul>
+ * <ul>
+ * All sources share one memory budget. A source alone may use the whole
+ * budget, when the budget is exceeded the source which is most over its fair
+ * share, budget / count of sources, is trimmed first.
+ * </ul>
+ * <ul>
+ * Tiles acquired by any layer are never evicted, so the budget may be
+ * exceeded while more tiles are on screen than it holds.
+ * </ul>
+ *
+ * @author jiangzhen
+ *
+ */
+public class TileCacheService {
+
+	private static TileCacheService sDefault;
+
+	private int mMaxSize;
+
+	private int mOverviewZoom;
+
+	/**
+	 * Guarded by this
+	 */
+	private HashMap<String, SourceCache> mSources = new HashMap<String, SourceCache>();
+
+	private int mRebalanceCount;
+
+	/**
+	 *
+	 * @param maxSize
+	 *            bytes of all sources
+	 * @param overviewZoom
+	 *            highest zoom level kept in protected segment of each source
+	 */
+	public TileCacheService(int maxSize, int overviewZoom) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize <= 0");
+		}
+		this.mMaxSize = maxSize;
+		this.mOverviewZoom = overviewZoom;
+	}
+
+	/**
+	 *
+	 * @return service sized by {@link TileMemoryBudget#fromRuntime()} until
+	 *         a loader using it gets budget of device, see
+	 *         {@link AbstractTileDataLoader#setMemoryBudget(TileMemoryBudget)}
+	 */
+	public static synchronized TileCacheService getDefault() {
+		if (sDefault == null) {
+			sDefault = new TileCacheService(TileMemoryBudget.fromRuntime()
+					.getCacheSize(), AbstractTileDataLoader.DEFAULT_OVERVIEW_ZOOM);
+		}
+		return sDefault;
+	}
+
+	/**
+	 * Get cache of source, create it for first user. Give it back by
+	 * {@link #release(TileMemoryCache)}.
+	 *
+	 * @param sourceId
+	 *            id of tile source, loaders of same id must decode same tiles
+	 * @return cache of source
+	 */
+	public synchronized TileMemoryCache acquire(String sourceId) {
+		if (sourceId == null) {
+			throw new NullPointerException("sourceId == null");
+		}
+		SourceCache cache = mSources.get(sourceId);
+		if (cache == null) {
+			cache = new SourceCache(sourceId, mMaxSize, mOverviewZoom);
+			mSources.put(sourceId, cache);
+		}
+		cache.mUsers++;
+		return cache;
+	}
+
+	/**
+	 * Give back cache of {@link #acquire(String)}, tiles of source are evicted
+	 * when last user gives it back.
+	 *
+	 * @param cache
+	 *            cache of source
+	 */
+	public void release(TileMemoryCache cache) {
+		SourceCache source = (SourceCache) cache;
+		synchronized (this) {
+			if (mSources.get(source.mSourceId) != source || --source.mUsers > 0) {
+				return;
+			}
+			mSources.remove(source.mSourceId);
+		}
+		source.evictAll();
+	}
+
+	/**
+	 * Resize budget of all sources.
+	 *
+	 * @param maxSize
+	 *            bytes of all sources
+	 */
+	public void setMaxSize(int maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize <= 0");
+		}
+		synchronized (this) {
+			mMaxSize = maxSize;
+			for (SourceCache cache : mSources.values()) {
+				cache.resize(maxSize);
+			}
+		}
+		rebalance();
+	}
+
+	public synchronized int maxSize() {
+		return mMaxSize;
+	}
+
+	/**
+	 *
+	 * @return bytes of all sources
+	 */
+	public synchronized int size() {
+		int size = 0;
+		for (SourceCache cache : mSources.values()) {
+			size += cache.size();
+		}
+		return size;
+	}
+
+	/**
+	 *
+	 * @return count of sources which have users
+	 */
+	public synchronized int sourceCount() {
+		return mSources.size();
+	}
+
+	/**
+	 *
+	 * @return count of trims of a source to keep the budget
+	 */
+	public synchronized int rebalanceCount() {
+		return mRebalanceCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "TileCacheService[size=" + size() + "/" + mMaxSize
+				+ ",sources=" + mSources.keySet() + "]";
+	}
+
+	/**
+	 * Size of tile, default is bytes of bitmap.
+	 *
+	 * @param tile
+	 * @return size in units of budget
+	 */
+	protected int sizeOf(Tile tile) {
+		return byteCountOf((Bitmap) tile.mTileData);
+	}
+
+	static int byteCountOf(Bitmap bitmap) {
+		if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.KITKAT) {
+			return bitmap.getAllocationByteCount();
+		} else {
+			return bitmap.getByteCount();
+		}
+	}
+
+	/**
+	 * Trim sources most over their fair share until all sources fit budget
+	 * or only tiles in use are left.
+	 */
+	private synchronized void rebalance() {
+		List<SourceCache> candidates = null;
+		while (true) {
+			int total = 0;
+			for (SourceCache cache : mSources.values()) {
+				total += cache.size();
+			}
+			int excess = total - mMaxSize;
+			if (excess <= 0) {
+				return;
+			}
+			if (candidates == null) {
+				candidates = new ArrayList<SourceCache>(mSources.values());
+			}
+			int share = mMaxSize / Math.max(1, mSources.size());
+			SourceCache victim = null;
+			int over = 0;
+			for (SourceCache cache : candidates) {
+				int size = cache.size();
+				if (victim == null || size - share > over) {
+					victim = cache;
+					over = size - share;
+				}
+			}
+			if (victim == null) {
+				return;
+			}
+			int before = victim.size();
+			// Source within its share still gives up tiles if others can't
+			victim.trimToSize(before - (over > 0 ? Math.min(over, excess) : excess));
+			mRebalanceCount++;
+			if (victim.size() >= before) {
+				// Left tiles are in use
+				candidates.remove(victim);
+			}
+		}
+	}
+
+	/**
+	 * Cache of one source, keeps global budget after each put
+	 */
+	private class SourceCache extends TileMemoryCache {
+
+		final String mSourceId;
+
+		/**
+		 * Guarded by service
+		 */
+		int mUsers;
+
+		SourceCache(String sourceId, int maxSize, int protectedZoom) {
+			super(maxSize, protectedZoom);
+			this.mSourceId = sourceId;
+		}
+
+		@Override
+		public Tile put(long key, Tile tile) {
+			Tile previous = super.put(key, tile);
+			rebalance();
+			return previous;
+		}
+
+		@Override
+		protected void entryRemoved(boolean evicted, long key, Tile oldValue,
+				Tile newValue) {
+			if (oldValue != null && oldValue != newValue) {
+				// Cache reference, bitmap is pooled once layers release it
+				oldValue.releaseFromCache();
+			}
+		}
+
+		@Override
+		protected int sizeOf(long key, Tile value) {
+			return TileCacheService.this.sizeOf(value);
+		}
+
+		@Override
+		public String toString() {
+			return mSourceId + ":" + super.toString();
+		}
+
+	}
+}
@@ -0,0 +1,127 @@
+package com.easygis.map.service;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.DisplayMetrics;
+
+import com.easygis.map.MapInfo;
+
+/**
+ * How tile images are decoded to bitmaps.<br>
+ * <ul>
+ * Opaque sources, such as JPEG basemaps, decode as RGB_565 which takes half
+ * memory of ARGB_8888.
+ * </ul>
+ * <ul>
+ * Sources with higher DPI than screen are subsampled by power of 2, decoded
+ * tile is scaled back to tile size when drawing.
+ * </ul>
+ * 
+ * @author jiangzhen
+ * 
+ */
+public class TileDecodePolicy {
+
+	/**
+	 * Full quality, ARGB_8888 without subsampling
+	 */
+	public static final TileDecodePolicy DEFAULT = new TileDecodePolicy(
+			Bitmap.Config.ARGB_8888, 1);
+
+	private Bitmap.Config mConfig;
+
+	private int mSampleSize;
+
+	/**
+	 * 
+	 * @param config
+	 *            bitmap config of decoded tile
+	 * @param sampleSize
+	 *            subsample factor, rounded down to power of 2
+	 */
+	public TileDecodePolicy(Bitmap.Config config, int sampleSize) {
+		if (config == null) {
+			throw new NullPointerException("config == null");
+		}
+		this.mConfig = config;
+		this.mSampleSize = Integer.highestOneBit(Math.max(1, sampleSize));
+	}
+
+	/**
+	 * Choose policy by tile source and screen.<br>
+	 * JPEG tiles are opaque, tiles of higher DPI than screen are subsampled.
+	 * 
+	 * @param info
+	 *            map info of tile source
+	 * @param metrics
+	 *            screen metrics
+	 * @return decode policy
+	 */
+	public static TileDecodePolicy forSource(MapInfo info,
+			DisplayMetrics metrics) {
+		String ext = info.mTileExtension == null ? "" : info.mTileExtension
+				.toLowerCase();
+		boolean opaque = ext.equals("jpg") || ext.equals("jpeg");
+		int sampleSize = 1;
+		if (metrics != null && metrics.densityDpi > 0
+				&& info.mTileDPI > metrics.densityDpi) {
+			sampleSize = (int) (info.mTileDPI / metrics.densityDpi);
+		}
+		return new TileDecodePolicy(opaque ? Bitmap.Config.RGB_565
+				: Bitmap.Config.ARGB_8888, sampleSize);
+	}
+
+	public Bitmap.Config getConfig() {
+		return mConfig;
+	}
+
+	public int getSampleSize() {
+		return mSampleSize;
+	}
+
+	/**
+	 * 
+	 * @param tileWidth
+	 *            width of encoded tile
+	 * @return width of decoded bitmap
+	 */
+	public int decodedWidth(int tileWidth) {
+		return Math.max(1, tileWidth / mSampleSize);
+	}
+
+	/**
+	 * 
+	 * @param tileHeight
+	 *            height of encoded tile
+	 * @return height of decoded bitmap
+	 */
+	public int decodedHeight(int tileHeight) {
+		return Math.max(1, tileHeight / mSampleSize);
+	}
+
+	/**
+	 * Before KITKAT, decoding into existing bitmap requires inSampleSize 1.
+	 * 
+	 * @return true if decode can reuse pooled bitmap
+	 */
+	public boolean canReuseBitmap() {
+		return mSampleSize == 1
+				|| android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.KITKAT;
+	}
+
+	/**
+	 * Set config and sample size to decode options
+	 * 
+	 * @param options
+	 */
+	public void applyTo(BitmapFactory.Options options) {
+		options.inPreferredConfig = mConfig;
+		options.inSampleSize = mSampleSize;
+		options.inDither = mConfig == Bitmap.Config.RGB_565;
+	}
+
+	@Override
+	public String toString() {
+		return "TileDecodePolicy[" + mConfig + ", 1/" + mSampleSize + "]";
+	}
+}
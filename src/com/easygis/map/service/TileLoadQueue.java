@@ -0,0 +1,402 @@
+package com.easygis.map.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.Process;
+import android.support.v4.util.LongSparseArray;
+
+import com.easygis.util.EGISLog;
+
+/**
+ * Queue of asynchronous tile loads run by a bounded pool of background
+ * workers.<br>
+ * <ul>
+ * Requested tiles run before prefetches, then loads nearest to latest
+ * viewport of {@link TileRequestScheduler}, then by request order.
+ * </ul>
+ * <ul>
+ * Viewport update doesn't touch the queue. Next worker taking a load ranks
+ * queued loads against new viewport once, and cancels loads which left it.
+ * </ul>
+ * Queued load of a tile can be promoted when the tile is requested.
+ *
+ * @author jiangzhen
+ *
+ */
+class TileLoadQueue {
+
+	/**
+	 * Priority of tile requested by layer
+	 */
+	static final int PRIORITY_REQUEST = 0;
+
+	/**
+	 * Priority of prefetch, runs after all requested tiles
+	 */
+	static final int PRIORITY_PREFETCH = 1;
+
+	private static final AtomicLong sSequence = new AtomicLong();
+
+	private final String mName;
+
+	private final int mWorkers;
+
+	private final TileRequestScheduler mScheduler;
+
+	private ThreadPoolExecutor mExecutor;
+
+	private Object mExecutorLock = new Object();
+
+	/**
+	 * Queued tasks by key, guarded by itself. Queue is reordered holding it.
+	 */
+	private LongSparseArray<Task> mQueued = new LongSparseArray<Task>();
+
+	/**
+	 * Viewport generation queued tasks are ranked against
+	 */
+	private volatile int mGeneration;
+
+	private AtomicInteger mCancelledLoads = new AtomicInteger();
+
+	/**
+	 *
+	 * @param name
+	 *            name prefix of worker threads
+	 * @param workers
+	 *            count of workers
+	 * @param scheduler
+	 *            ranks loads against viewport
+	 */
+	TileLoadQueue(String name, int workers, TileRequestScheduler scheduler) {
+		this.mName = name;
+		this.mWorkers = workers;
+		this.mScheduler = scheduler;
+	}
+
+	int getWorkerCount() {
+		return mWorkers;
+	}
+
+	/**
+	 *
+	 * @return count of tiles whose queued load was cancelled because they
+	 *         left viewport
+	 */
+	int getCancelledLoadCount() {
+		return mCancelledLoads.get();
+	}
+
+	/**
+	 * Queue task, it's cancelled if queue is shut down
+	 */
+	void execute(Task task) {
+		task.mQueue = this;
+		synchronized (mQueued) {
+			for (long key : task.mKeys) {
+				mQueued.put(key, task);
+			}
+		}
+		try {
+			getExecutor().execute(task);
+		} catch (RejectedExecutionException e) {
+			EGISLog.w(mName + " is shut down, ignore load of "
+					+ task.mKeys.length + " tiles");
+			dequeue(task);
+			task.cancel();
+		}
+	}
+
+	/**
+	 * Move queued load of key to higher priority
+	 */
+	void promote(long key, int priority) {
+		Task rejected = null;
+		synchronized (mQueued) {
+			Task task = mQueued.get(key);
+			if (task == null || task.mPriority <= priority) {
+				return;
+			}
+			ThreadPoolExecutor executor = getExecutor();
+			if (!executor.getQueue().remove(task)) {
+				// Taken by worker
+				return;
+			}
+			task.mPriority = priority;
+			task.mRank = task.rank(mScheduler);
+			try {
+				executor.execute(task);
+			} catch (RejectedExecutionException e) {
+				rejected = task;
+			}
+		}
+		if (rejected != null) {
+			dequeue(rejected);
+			rejected.cancel();
+		}
+	}
+
+	/**
+	 * Stop workers and cancel all queued tasks, queue starts new workers on
+	 * next task.
+	 */
+	void shutdown() {
+		List<Task> cancelled = new ArrayList<Task>();
+		synchronized (mQueued) {
+			synchronized (mExecutorLock) {
+				if (mExecutor != null) {
+					mExecutor.shutdownNow();
+					mExecutor = null;
+				}
+			}
+			// Also tasks a worker was reordering when it stopped
+			for (int i = 0; i < mQueued.size(); i++) {
+				Task task = mQueued.valueAt(i);
+				if (!cancelled.contains(task)) {
+					cancelled.add(task);
+				}
+			}
+			mQueued.clear();
+		}
+		for (Task task : cancelled) {
+			task.cancel();
+		}
+	}
+
+	private ThreadPoolExecutor getExecutor() {
+		synchronized (mExecutorLock) {
+			if (mExecutor == null) {
+				mExecutor = new ThreadPoolExecutor(mWorkers, mWorkers, 30,
+						TimeUnit.SECONDS, new ViewportQueue(), mThreadFactory);
+				mExecutor.allowCoreThreadTimeOut(true);
+			}
+			return mExecutor;
+		}
+	}
+
+	private void dequeue(Task task) {
+		synchronized (mQueued) {
+			for (long key : task.mKeys) {
+				if (mQueued.get(key) == task) {
+					mQueued.remove(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rank queued tasks again if viewport changed since last reorder, and
+	 * cancel tasks which left viewport. Called by worker before it takes a
+	 * task.
+	 */
+	private void reorder(BlockingQueue<Runnable> queue) {
+		int generation = mScheduler.getGeneration();
+		if (generation == mGeneration) {
+			return;
+		}
+		List<Task> stale = null;
+		synchronized (mQueued) {
+			if (generation == mGeneration) {
+				return;
+			}
+			mGeneration = generation;
+			List<Runnable> tasks = new ArrayList<Runnable>(queue.size());
+			queue.drainTo(tasks);
+			for (Runnable r : tasks) {
+				Task task = (Task) r;
+				if (task.isStale(mScheduler)) {
+					for (long key : task.mKeys) {
+						mQueued.remove(key);
+					}
+					if (stale == null) {
+						stale = new ArrayList<Task>();
+					}
+					stale.add(task);
+				} else {
+					task.mRank = task.rank(mScheduler);
+					// This worker takes from queue next, no worker is needed
+					queue.offer(task);
+				}
+			}
+		}
+		if (stale != null) {
+			for (Task task : stale) {
+				mCancelledLoads.addAndGet(task.mKeys.length);
+				task.cancel();
+			}
+		}
+	}
+
+	/**
+	 * Queue which is reordered against latest viewport before a worker takes
+	 * from it
+	 */
+	private class ViewportQueue extends PriorityBlockingQueue<Runnable> {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public Runnable take() throws InterruptedException {
+			reorder(this);
+			return super.take();
+		}
+
+		@Override
+		public Runnable poll(long timeout, TimeUnit unit)
+				throws InterruptedException {
+			reorder(this);
+			return super.poll(timeout, unit);
+		}
+	}
+
+	/**
+	 * Queued load of tile keys, ordered by priority, then by rank against
+	 * viewport, then by request order.
+	 */
+	abstract static class Task implements Runnable, Comparable<Task> {
+
+		final long[] mKeys;
+
+		/**
+		 * Never cancelled because it left viewport
+		 */
+		final boolean isKept;
+
+		private final long mSequence;
+
+		private TileLoadQueue mQueue;
+
+		/**
+		 * Only changed while task is out of executor queue
+		 */
+		private volatile int mPriority;
+
+		/**
+		 * Only changed while task is out of executor queue
+		 */
+		private volatile long mRank;
+
+		/**
+		 *
+		 * @param keys
+		 *            registered keys, bulk loads keep them in read order
+		 * @param priority
+		 *            {@link TileLoadQueue#PRIORITY_REQUEST} or
+		 *            {@link TileLoadQueue#PRIORITY_PREFETCH}
+		 * @param kept
+		 *            true if task is never cancelled because it left viewport
+		 * @param scheduler
+		 *            scheduler of queue
+		 */
+		Task(long[] keys, int priority, boolean kept,
+				TileRequestScheduler scheduler) {
+			this.mKeys = keys;
+			this.mPriority = priority;
+			this.isKept = kept;
+			this.mSequence = sSequence.incrementAndGet();
+			this.mRank = rank(scheduler);
+		}
+
+		boolean isPrefetch() {
+			return mPriority == PRIORITY_PREFETCH;
+		}
+
+		/**
+		 * Check tile of bulk task right before it's loaded.
+		 *
+		 * @return true if tile left viewport, it's counted as cancelled
+		 */
+		boolean leftViewport(long key) {
+			if (isKept || !mQueue.mScheduler.isStale(key, isPrefetch())) {
+				return false;
+			}
+			mQueue.mCancelledLoads.incrementAndGet();
+			return true;
+		}
+
+		/**
+		 * Rank of nearest tile
+		 */
+		private long rank(TileRequestScheduler scheduler) {
+			long rank = Long.MAX_VALUE;
+			for (long key : mKeys) {
+				rank = Math.min(rank, scheduler.rank(key));
+			}
+			return rank;
+		}
+
+		/**
+		 *
+		 * @return true if all tiles left viewport
+		 */
+		private boolean isStale(TileRequestScheduler scheduler) {
+			if (isKept) {
+				return false;
+			}
+			for (long key : mKeys) {
+				if (!scheduler.isStale(key, isPrefetch())) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public final void run() {
+			mQueue.dequeue(this);
+			load();
+		}
+
+		/**
+		 * Load tiles on worker, each registered key must be completed
+		 */
+		protected abstract void load();
+
+		/**
+		 * Task never runs, complete its registered keys without tile
+		 */
+		protected abstract void cancel();
+
+		@Override
+		public int compareTo(Task another) {
+			if (mPriority != another.mPriority) {
+				return mPriority < another.mPriority ? -1 : 1;
+			}
+			if (mRank != another.mRank) {
+				return mRank < another.mRank ? -1 : 1;
+			}
+			return mSequence < another.mSequence ? -1
+					: (mSequence == another.mSequence ? 0 : 1);
+		}
+	}
+
+	private ThreadFactory mThreadFactory = new ThreadFactory() {
+
+		private AtomicInteger mCount = new AtomicInteger();
+
+		@Override
+		public Thread newThread(final Runnable r) {
+			Thread t = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+					r.run();
+				}
+
+			}, mName + "-" + mCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+
+	};
+}
@@ -0,0 +1,182 @@
+package com.easygis.map.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.support.v4.util.LongSparseArray;
+
+import com.easygis.map.Tile;
+import com.easygis.map.TileKey;
+import com.easygis.map.layer.TileDataLoaderCallback;
+
+/**
+ * In-flight tile load table.<br>
+ * Concurrent requests for same tile key share one disk read and decode. The
+ * first request registers the load and performs it, later requests either
+ * wait for the result or attach callback to it.
+ *
+ * @see TileKey
+ */
+class TileLoadTable {
+
+	private LongSparseArray<PendingLoad> mPending = new LongSparseArray<PendingLoad>();
+
+	private long mSavedLoads;
+
+	/**
+	 * Join load of given key.<br>
+	 *
+	 * @param key
+	 *            packed tile key
+	 * @param callback
+	 *            callback of request, can be null
+	 * @return null means no load in flight for this key, caller is owner of
+	 *         new load and must call {@link #complete(long, Tile)}.
+	 *         Otherwise caller joined existed load.
+	 */
+	public synchronized PendingLoad begin(long key, TileDataLoaderCallback callback) {
+		PendingLoad load = mPending.get(key);
+		if (load != null) {
+			mSavedLoads++;
+			load.addCallback(callback);
+			return load;
+		}
+		load = new PendingLoad();
+		load.addCallback(callback);
+		mPending.put(key, load);
+		return null;
+	}
+
+	/**
+	 * Register load of given key if no load is in flight, without callback.
+	 *
+	 * @param key
+	 *            packed tile key
+	 * @return true if caller is owner of new load and must call
+	 *         {@link #complete(long, Tile)}
+	 */
+	public synchronized boolean tryBegin(long key) {
+		if (mPending.get(key) != null) {
+			return false;
+		}
+		mPending.put(key, new PendingLoad());
+		return true;
+	}
+
+	/**
+	 * Finish load of given key, wake up waiting requests and call all
+	 * attached callbacks.
+	 *
+	 * @param key
+	 *            packed tile key
+	 * @param tile
+	 *            loaded tile, null if load failed
+	 */
+	public void complete(long key, Tile tile) {
+		finish(key, tile, false);
+	}
+
+	/**
+	 * Finish load of given key which never ran, such as a queued load which
+	 * left viewport. Callbacks get null, waiting requests may load tile
+	 * themselves.
+	 *
+	 * @param key
+	 *            packed tile key
+	 */
+	public void cancel(long key) {
+		finish(key, null, true);
+	}
+
+	private void finish(long key, Tile tile, boolean cancelled) {
+		PendingLoad load;
+		synchronized (this) {
+			load = mPending.get(key);
+			if (load == null) {
+				return;
+			}
+			mPending.remove(key);
+		}
+		List<TileDataLoaderCallback> callbacks = load.finish(tile, cancelled);
+		if (callbacks.isEmpty()) {
+			return;
+		}
+		int row = TileKey.row(key);
+		int col = TileKey.col(key);
+		int zoom = TileKey.zoom(key);
+		for (TileDataLoaderCallback callback : callbacks) {
+			callback.tileLoadedNotification(row, col, zoom, tile);
+		}
+	}
+
+	/**
+	 *
+	 * @return count of loads in flight
+	 */
+	public synchronized int size() {
+		return mPending.size();
+	}
+
+	/**
+	 *
+	 * @return how many duplicated disk read and decode are saved
+	 */
+	public synchronized long getSavedLoadCount() {
+		return mSavedLoads;
+	}
+
+	/**
+	 * Load in flight
+	 */
+	static class PendingLoad {
+
+		private List<TileDataLoaderCallback> mCallbacks = new ArrayList<TileDataLoaderCallback>(
+				1);
+
+		private boolean isDone;
+
+		private boolean isCancelled;
+
+		private Tile mResult;
+
+		synchronized void addCallback(TileDataLoaderCallback callback) {
+			if (callback != null) {
+				mCallbacks.add(callback);
+			}
+		}
+
+		synchronized List<TileDataLoaderCallback> finish(Tile tile,
+				boolean cancelled) {
+			mResult = tile;
+			isCancelled = cancelled;
+			isDone = true;
+			notifyAll();
+			return mCallbacks;
+		}
+
+		/**
+		 * Wait until load is finished
+		 *
+		 * @return loaded tile, null if load failed or wait is interrupted
+		 */
+		synchronized Tile await() {
+			while (!isDone) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return null;
+				}
+			}
+			return mResult;
+		}
+
+		/**
+		 *
+		 * @return true if load was cancelled before it ran
+		 */
+		synchronized boolean isCancelled() {
+			return isCancelled;
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package com.easygis.map.service;
+
+import android.app.ActivityManager;
+import android.content.Context;
+
+/**
+ * Memory budget of tile loader, derived from heap size of application.<br>
+ * <ul>
+ * Decoded tile cache takes 1/8 of heap, bitmap pool takes 1/32 of heap,
+ * encoded tile bytes take 1/16 of heap.
+ * </ul>
+ * <ul>
+ * Low RAM devices (KITKAT and later) get half of it.
+ * </ul>
+ * 
+ * @author jiangzhen
+ * 
+ */
+public class TileMemoryBudget {
+
+	private static final int CACHE_DIVISOR = 8;
+
+	private static final int POOL_DIVISOR = 32;
+
+	private static final int ENCODED_DIVISOR = 16;
+
+	/**
+	 * Cache must hold at least one screen of tiles
+	 */
+	private static final int MIN_CACHE_SIZE = 2 * 1024 * 1024;
+
+	private static final int MIN_POOL_SIZE = 512 * 1024;
+
+	private static final int MIN_ENCODED_SIZE = 1024 * 1024;
+
+	private int mCacheSize;
+
+	private int mPoolSize;
+
+	private int mEncodedSize;
+
+	/**
+	 * 
+	 * @param cacheSize
+	 *            bytes of decoded tile cache
+	 * @param poolSize
+	 *            bytes of bitmap pool
+	 * @param encodedSize
+	 *            bytes of encoded tile cache
+	 */
+	public TileMemoryBudget(int cacheSize, int poolSize, int encodedSize) {
+		if (cacheSize <= 0) {
+			throw new IllegalArgumentException("cacheSize <= 0");
+		}
+		if (encodedSize <= 0) {
+			throw new IllegalArgumentException("encodedSize <= 0");
+		}
+		this.mCacheSize = cacheSize;
+		this.mPoolSize = Math.max(0, poolSize);
+		this.mEncodedSize = encodedSize;
+	}
+
+	/**
+	 * 
+	 * @param heapSize
+	 *            bytes of application heap
+	 * @return budget for heap
+	 */
+	public static TileMemoryBudget forHeap(long heapSize) {
+		long cache = Math.max(MIN_CACHE_SIZE, heapSize / CACHE_DIVISOR);
+		long pool = Math.max(MIN_POOL_SIZE, heapSize / POOL_DIVISOR);
+		long encoded = Math.max(MIN_ENCODED_SIZE, heapSize / ENCODED_DIVISOR);
+		return new TileMemoryBudget((int) Math.min(Integer.MAX_VALUE, cache),
+				(int) Math.min(Integer.MAX_VALUE, pool), (int) Math.min(
+						Integer.MAX_VALUE, encoded));
+	}
+
+	/**
+	 * Budget from {@link ActivityManager#getMemoryClass()}.
+	 * 
+	 * @param context
+	 * @return budget for this device
+	 */
+	public static TileMemoryBudget fromContext(Context context) {
+		ActivityManager am = (ActivityManager) context
+				.getSystemService(Context.ACTIVITY_SERVICE);
+		long heapSize = (long) am.getMemoryClass() * 1024 * 1024;
+		if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.KITKAT
+				&& am.isLowRamDevice()) {
+			heapSize /= 2;
+		}
+		return forHeap(heapSize);
+	}
+
+	/**
+	 * Budget from {@link Runtime#maxMemory()}, used when no context is given.
+	 * 
+	 * @return budget of this process
+	 */
+	public static TileMemoryBudget fromRuntime() {
+		return forHeap(Runtime.getRuntime().maxMemory());
+	}
+
+	public int getCacheSize() {
+		return mCacheSize;
+	}
+
+	public int getPoolSize() {
+		return mPoolSize;
+	}
+
+	public int getEncodedSize() {
+		return mEncodedSize;
+	}
+
+	@Override
+	public String toString() {
+		return "TileMemoryBudget[cache=" + mCacheSize + ", pool=" + mPoolSize
+				+ ", encoded=" + mEncodedSize + "]";
+	}
+}
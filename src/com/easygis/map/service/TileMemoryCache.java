@@ -0,0 +1,289 @@
+package com.easygis.map.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.easygis.map.Tile;
+import com.easygis.map.TileKey;
+import com.easygis.util.LongLruCache;
+
+/**
+ * Decoded tile cache with a protected segment for overview tiles.<br>
+ * <ul>
+ * Tiles of zoom level at or below protected zoom live in their own segment
+ * with its own size limit, so tiles of street level never evict them. One
+ * overview tile covers thousands of high zoom tiles and is drawn scaled
+ * while they load.
+ * </ul>
+ * <ul>
+ * Both segments call {@link #entryRemoved} and {@link #sizeOf} of this
+ * cache. Trims evict from the main segment first.
+ * </ul>
+ * <ul>
+ * Tiles acquired by layers are never evicted by trims, see
+ * {@link #isEvictable(long, Tile)}.
+ * </ul>
+ * 
+ * @author jiangzhen
+ * 
+ */
+public class TileMemoryCache {
+
+	/**
+	 * Protected segment takes 1/4 of cache by default
+	 */
+	private static final int PROTECTED_SHARE = 4;
+
+	private volatile int mProtectedZoom;
+
+	private Segment mMain;
+
+	private Segment mProtected;
+
+	private AtomicInteger mPrefetchWasted = new AtomicInteger();
+
+	/**
+	 * 
+	 * @param maxSize
+	 *            bytes of both segments
+	 * @param protectedZoom
+	 *            highest zoom level kept in protected segment, -1 disables it
+	 */
+	public TileMemoryCache(int maxSize, int protectedZoom) {
+		int protectedSize = Math.max(1, maxSize / PROTECTED_SHARE);
+		this.mProtectedZoom = protectedZoom;
+		this.mMain = new Segment(Math.max(1, maxSize - protectedSize));
+		this.mProtected = new Segment(protectedSize);
+	}
+
+	public Tile get(long key) {
+		return segment(key).get(key);
+	}
+
+	public Tile peek(long key) {
+		return segment(key).peek(key);
+	}
+
+	public Tile put(long key, Tile tile) {
+		return segment(key).put(key, tile);
+	}
+
+	public Tile remove(long key) {
+		return segment(key).remove(key);
+	}
+
+	/**
+	 * Evict main segment first, protected segment only if it alone exceeds
+	 * size.
+	 * 
+	 * @param maxSize
+	 *            bytes kept, -1 evicts all
+	 */
+	public void trimToSize(int maxSize) {
+		int protectedSize = mProtected.size();
+		if (maxSize >= protectedSize) {
+			mMain.trimToSize(maxSize - protectedSize);
+		} else {
+			mMain.trimToSize(-1);
+			mProtected.trimToSize(maxSize);
+		}
+	}
+
+	/**
+	 * 
+	 * @return keys from least to most recently used, overview segment first,
+	 *         so most recent keys are working tiles of main segment
+	 */
+	public long[] keys() {
+		long[] main = mMain.keys();
+		long[] overview = mProtected.keys();
+		long[] keys = new long[main.length + overview.length];
+		System.arraycopy(overview, 0, keys, 0, overview.length);
+		System.arraycopy(main, 0, keys, overview.length, main.length);
+		return keys;
+	}
+
+	public int evict(LongLruCache.KeyFilter filter) {
+		return mMain.evict(filter) + mProtected.evict(filter);
+	}
+
+	/**
+	 * Evict main segment, overview tiles and tiles in use are kept.
+	 */
+	public void evictMain() {
+		mMain.trimToSize(-1);
+	}
+
+	/**
+	 * Remove all tiles, including tiles in use.
+	 */
+	public void evictAll() {
+		mMain.evictAll();
+		mProtected.evictAll();
+	}
+
+	/**
+	 * Resize cache, protected segment takes 1/4 of it.
+	 * 
+	 * @param maxSize
+	 *            bytes of both segments
+	 */
+	public void resize(int maxSize) {
+		resize(maxSize, Math.max(1, maxSize / PROTECTED_SHARE));
+	}
+
+	/**
+	 * 
+	 * @param maxSize
+	 *            bytes of both segments
+	 * @param protectedSize
+	 *            bytes of protected segment
+	 */
+	public void resize(int maxSize, int protectedSize) {
+		if (protectedSize <= 0 || protectedSize >= maxSize) {
+			throw new IllegalArgumentException("protectedSize "
+					+ protectedSize + " out of (0, " + maxSize + ")");
+		}
+		mMain.resize(maxSize - protectedSize);
+		mProtected.resize(protectedSize);
+	}
+
+	/**
+	 * Change highest zoom level kept in protected segment, tiles which are in
+	 * wrong segment are evicted.
+	 * 
+	 * @param zoom
+	 *            protected zoom, -1 disables protected segment
+	 */
+	public void setProtectedZoom(final int zoom) {
+		if (zoom == mProtectedZoom) {
+			return;
+		}
+		mProtectedZoom = zoom;
+		mMain.evict(new LongLruCache.KeyFilter() {
+
+			@Override
+			public boolean accept(long key) {
+				return TileKey.zoom(key) <= zoom;
+			}
+
+		});
+		mProtected.evict(new LongLruCache.KeyFilter() {
+
+			@Override
+			public boolean accept(long key) {
+				return TileKey.zoom(key) > zoom;
+			}
+
+		});
+	}
+
+	public int getProtectedZoom() {
+		return mProtectedZoom;
+	}
+
+	public void setEvictionPolicy(LongLruCache.EvictionPolicy policy) {
+		mMain.setEvictionPolicy(policy);
+		mProtected.setEvictionPolicy(policy);
+	}
+
+	public int size() {
+		return mMain.size() + mProtected.size();
+	}
+
+	public int maxSize() {
+		return mMain.maxSize() + mProtected.maxSize();
+	}
+
+	/**
+	 * 
+	 * @return bytes of overview tiles
+	 */
+	public int protectedSize() {
+		return mProtected.size();
+	}
+
+	public int protectedMaxSize() {
+		return mProtected.maxSize();
+	}
+
+	public int hitCount() {
+		return mMain.hitCount() + mProtected.hitCount();
+	}
+
+	public int missCount() {
+		return mMain.missCount() + mProtected.missCount();
+	}
+
+	/**
+	 * 
+	 * @return count of prefetched tiles removed before requested
+	 */
+	public int prefetchWastedCount() {
+		return mPrefetchWasted.get();
+	}
+
+	@Override
+	public String toString() {
+		return "TileMemoryCache[main=" + mMain + ",protected=" + mProtected
+				+ ",protectedZoom=" + mProtectedZoom + "]";
+	}
+
+	/**
+	 * Called for tiles that have been evicted or removed, without
+	 * synchronization.
+	 * 
+	 * @see LongLruCache#entryRemoved(boolean, long, Object, Object)
+	 */
+	protected void entryRemoved(boolean evicted, long key, Tile oldValue,
+			Tile newValue) {
+	}
+
+	/**
+	 * Size of tile, default is 1.
+	 * 
+	 * @see LongLruCache#sizeOf(long, Object)
+	 */
+	protected int sizeOf(long key, Tile value) {
+		return 1;
+	}
+
+	/**
+	 * Whether trims may evict tile, default keeps tiles which are in use.
+	 * 
+	 * @see LongLruCache#isEvictable(long, Object)
+	 */
+	protected boolean isEvictable(long key, Tile value) {
+		return !value.isInUse();
+	}
+
+	private Segment segment(long key) {
+		return TileKey.zoom(key) <= mProtectedZoom ? mProtected : mMain;
+	}
+
+	private class Segment extends LongLruCache<Tile> {
+
+		Segment(int maxSize) {
+			super(maxSize, 64);
+		}
+
+		@Override
+		protected void entryRemoved(boolean evicted, long key, Tile oldValue,
+				Tile newValue) {
+			if (oldValue != newValue && oldValue.isPrefetched) {
+				mPrefetchWasted.incrementAndGet();
+			}
+			TileMemoryCache.this.entryRemoved(evicted, key, oldValue, newValue);
+		}
+
+		@Override
+		protected int sizeOf(long key, Tile value) {
+			return TileMemoryCache.this.sizeOf(key, value);
+		}
+
+		@Override
+		protected boolean isEvictable(long key, Tile value) {
+			return TileMemoryCache.this.isEvictable(key, value);
+		}
+
+	}
+}
@@ -0,0 +1,171 @@
+package com.easygis.map.service;
+
+import com.easygis.map.TileKey;
+import com.easygis.map.TileRange;
+
+/**
+ * Order and cancel queued tile loads against latest viewport.<br>
+ * <ul>
+ * Tiles where current fling stops go first, then tiles of viewport zoom
+ * level by distance to viewport center, then tiles of other zoom levels.
+ * </ul>
+ * <ul>
+ * Queued requests which left the viewport and fling target are stale.
+ * Prefetches are stale when they are farther than prefetch margin from the
+ * viewport, or more than one zoom level away. Overview tiles are never
+ * stale.
+ * </ul>
+ * 
+ * @author jiangzhen
+ * 
+ */
+public class TileRequestScheduler {
+
+	/**
+	 * Rank of fling target tiles, lower than any other rank
+	 */
+	private static final long TARGET_RANK = Long.MIN_VALUE / 2;
+
+	private static final int ZOOM_MISMATCH_SHIFT = 40;
+
+	private TileRange mVisible;
+
+	private TileRange mTarget;
+
+	private int mPrefetchMargin = 2;
+
+	private int mOverviewZoom = -1;
+
+	/**
+	 * Changed with each viewport or margin change
+	 */
+	private volatile int mGeneration;
+
+	/**
+	 * 
+	 * @param visible
+	 *            visible tile range, null means unknown
+	 * @param target
+	 *            tile range where fling stops, can be null
+	 */
+	public synchronized void setViewport(TileRange visible, TileRange target) {
+		mVisible = visible == null ? null : new TileRange(visible);
+		mTarget = target == null ? null : new TileRange(target);
+		mGeneration++;
+	}
+
+	/**
+	 * 
+	 * @param margin
+	 *            count of tiles around viewport where prefetch is kept
+	 */
+	public synchronized void setPrefetchMargin(int margin) {
+		mPrefetchMargin = Math.max(0, margin);
+		mGeneration++;
+	}
+
+	/**
+	 * 
+	 * @return generation of viewport, ranks and staleness of loads only
+	 *         change when it changes
+	 */
+	public int getGeneration() {
+		return mGeneration;
+	}
+
+	/**
+	 * 
+	 * @param zoom
+	 *            highest zoom level of overview tiles, which are kept in
+	 *            memory at any viewport. -1 means none
+	 */
+	public synchronized void setOverviewZoom(int zoom) {
+		mOverviewZoom = zoom;
+		mGeneration++;
+	}
+
+	public synchronized boolean hasViewport() {
+		return mVisible != null;
+	}
+
+	/**
+	 * 
+	 * @return copy of latest visible range, null if unknown
+	 */
+	public synchronized TileRange getVisible() {
+		return mVisible == null ? null : new TileRange(mVisible);
+	}
+
+	/**
+	 * Rank of queued load, lower rank runs first.
+	 * 
+	 * @param key
+	 *            packed tile key
+	 * @return rank
+	 */
+	public synchronized long rank(long key) {
+		if (mVisible == null) {
+			return 0;
+		}
+		int row = TileKey.row(key);
+		int col = TileKey.col(key);
+		int zoom = TileKey.zoom(key);
+		if (mTarget != null && mTarget.contains(row, col, zoom)) {
+			return TARGET_RANK + distance(mTarget, row, col, zoom);
+		}
+		long mismatch = Math.abs(zoom - mVisible.zoom);
+		return (mismatch << ZOOM_MISMATCH_SHIFT)
+				+ distance(mVisible, row, col, zoom);
+	}
+
+	/**
+	 * 
+	 * @param key
+	 *            packed tile key
+	 * @param prefetch
+	 *            true if load is prefetch
+	 * @return true if queued load should be cancelled
+	 */
+	public synchronized boolean isStale(long key, boolean prefetch) {
+		if (mVisible == null) {
+			return false;
+		}
+		int row = TileKey.row(key);
+		int col = TileKey.col(key);
+		int zoom = TileKey.zoom(key);
+		if (zoom <= mOverviewZoom
+				|| (mTarget != null && mTarget.contains(row, col, zoom))) {
+			return false;
+		}
+		if (!prefetch) {
+			return !mVisible.contains(row, col, zoom);
+		}
+		int dz = zoom - mVisible.zoom;
+		if (dz > 1 || dz < -1) {
+			return true;
+		}
+		// Project tile to viewport zoom level
+		int startRow = dz > 0 ? row >> dz : row << -dz;
+		int startCol = dz > 0 ? col >> dz : col << -dz;
+		int endRow = dz >= 0 ? startRow : ((row + 1) << -dz) - 1;
+		int endCol = dz >= 0 ? startCol : ((col + 1) << -dz) - 1;
+		return endRow < mVisible.startRow - mPrefetchMargin
+				|| startRow > mVisible.endRow + mPrefetchMargin
+				|| endCol < mVisible.startCol - mPrefetchMargin
+				|| startCol > mVisible.endCol + mPrefetchMargin;
+	}
+
+	/**
+	 * Squared distance from tile center to range center, in 1/4 tiles of
+	 * range zoom level.
+	 */
+	private static long distance(TileRange range, int row, int col, int zoom) {
+		int dz = range.zoom - zoom;
+		double scale = dz >= 0 ? (1 << dz) : 1.0 / (1 << -dz);
+		double dr = (row + 0.5) * scale - (range.startRow + range.endRow + 1)
+				/ 2.0;
+		double dc = (col + 0.5) * scale - (range.startCol + range.endCol + 1)
+				/ 2.0;
+		return (long) ((dr * dr + dc * dc) * 16);
+	}
+}
@@ -0,0 +1,177 @@
+package com.easygis.map.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import android.support.v4.util.AtomicFile;
+
+import com.easygis.map.TileKey;
+import com.easygis.map.TileRange;
+
+/**
+ * Working tile set of last session: last viewport and keys of most recently
+ * used tiles, most recent first.<br>
+ * <ul>
+ * File is 'EGWS' magic, version, viewport flag and range, count of keys and
+ * keys. It's written by {@link AtomicFile}, so a crash never leaves half
+ * snapshot or no snapshot.
+ * </ul>
+ * 
+ * @author jiangzhen
+ * 
+ */
+public class WarmStartSnapshot {
+
+	/**
+	 * 'EGWS'
+	 */
+	private static final int MAGIC = 0x45475753;
+
+	private static final int VERSION = 1;
+
+	private TileRange mViewport;
+
+	private long[] mKeys;
+
+	/**
+	 * 
+	 * @param viewport
+	 *            last visible tile range, can be null
+	 * @param keys
+	 *            tile keys, most recently used first
+	 */
+	public WarmStartSnapshot(TileRange viewport, long[] keys) {
+		this.mViewport = viewport;
+		this.mKeys = keys;
+	}
+
+	public TileRange getViewport() {
+		return mViewport;
+	}
+
+	public long[] getKeys() {
+		return mKeys;
+	}
+
+	/**
+	 * Order of preload: tiles of last viewport from its center outward, then
+	 * other tiles by recency.
+	 * 
+	 * @return tile keys
+	 */
+	public long[] preloadOrder() {
+		long[] order = new long[mKeys.length];
+		int count = 0;
+		if (mViewport != null) {
+			long[] visible = new long[mKeys.length];
+			long[] distances = new long[mKeys.length];
+			int visibleCount = 0;
+			double centerRow = (mViewport.startRow + mViewport.endRow + 1) / 2.0;
+			double centerCol = (mViewport.startCol + mViewport.endCol + 1) / 2.0;
+			for (long key : mKeys) {
+				int row = TileKey.row(key);
+				int col = TileKey.col(key);
+				if (mViewport.contains(row, col, TileKey.zoom(key))) {
+					double dr = row + 0.5 - centerRow;
+					double dc = col + 0.5 - centerCol;
+					// Insertion sort, viewport holds a few dozens of tiles
+					long distance = (long) ((dr * dr + dc * dc) * 16);
+					int i = visibleCount++;
+					while (i > 0 && distances[i - 1] > distance) {
+						distances[i] = distances[i - 1];
+						visible[i] = visible[i - 1];
+						i--;
+					}
+					distances[i] = distance;
+					visible[i] = key;
+				}
+			}
+			System.arraycopy(visible, 0, order, 0, visibleCount);
+			count = visibleCount;
+		}
+		for (long key : mKeys) {
+			if (mViewport == null
+					|| !mViewport.contains(TileKey.row(key), TileKey.col(key),
+							TileKey.zoom(key))) {
+				order[count++] = key;
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * 
+	 * @param file
+	 *            snapshot file
+	 * @return snapshot
+	 * @throws IOException
+	 *             if file doesn't exist or isn't a snapshot
+	 */
+	public static WarmStartSnapshot read(File file) throws IOException {
+		AtomicFile atomic = new AtomicFile(file);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				atomic.openRead()));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException(file + " is not a warm start snapshot");
+			}
+			TileRange viewport = null;
+			if (in.readBoolean()) {
+				viewport = new TileRange(in.readInt(), in.readInt(),
+						in.readInt(), in.readInt(), in.readInt());
+			}
+			int count = in.readInt();
+			// Broken file must not allocate more keys than it can hold
+			if (count < 0 || count > atomic.getBaseFile().length() / 8) {
+				throw new IOException("bad key count " + count);
+			}
+			long[] keys = new long[count];
+			for (int i = 0; i < count; i++) {
+				keys[i] = in.readLong();
+			}
+			return new WarmStartSnapshot(viewport, keys);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * 
+	 * @param file
+	 *            snapshot file, replaced when write succeeds
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		AtomicFile atomic = new AtomicFile(file);
+		FileOutputStream stream = atomic.startWrite();
+		try {
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(stream));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeBoolean(mViewport != null);
+			if (mViewport != null) {
+				out.writeInt(mViewport.zoom);
+				out.writeInt(mViewport.startRow);
+				out.writeInt(mViewport.startCol);
+				out.writeInt(mViewport.endRow);
+				out.writeInt(mViewport.endCol);
+			}
+			out.writeInt(mKeys.length);
+			for (long key : mKeys) {
+				out.writeLong(key);
+			}
+			out.flush();
+			// Synced before old snapshot is dropped
+			atomic.finishWrite(stream);
+		} catch (IOException e) {
+			atomic.failWrite(stream);
+			throw e;
+		}
+	}
+}
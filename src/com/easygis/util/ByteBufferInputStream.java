@@ -0,0 +1,75 @@
+package com.easygis.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * InputStream reads from ByteBuffer without copying buffer to array.
+ * 
+ */
+public class ByteBufferInputStream extends InputStream {
+
+	private ByteBuffer mBuffer;
+
+	private int mMark;
+
+	/**
+	 * 
+	 * @param buffer
+	 *            bytes between position and limit are read, stream changes
+	 *            position of buffer
+	 */
+	public ByteBufferInputStream(ByteBuffer buffer) {
+		this.mBuffer = buffer;
+		this.mMark = buffer.position();
+	}
+
+	@Override
+	public int read() {
+		if (!mBuffer.hasRemaining()) {
+			return -1;
+		}
+		return mBuffer.get() & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (len == 0) {
+			return 0;
+		}
+		int remaining = mBuffer.remaining();
+		if (remaining == 0) {
+			return -1;
+		}
+		int count = Math.min(len, remaining);
+		mBuffer.get(b, off, count);
+		return count;
+	}
+
+	@Override
+	public long skip(long n) {
+		int count = (int) Math.max(0, Math.min(n, mBuffer.remaining()));
+		mBuffer.position(mBuffer.position() + count);
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return mBuffer.remaining();
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+		mMark = mBuffer.position();
+	}
+
+	@Override
+	public synchronized void reset() {
+		mBuffer.position(mMark);
+	}
+}
@@ -0,0 +1,125 @@
+package com.easygis.util;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in power of two buckets of microseconds.<br>
+ * <ul>
+ * Bucket i counts latencies in [2^(i-1), 2^i) microseconds, bucket 0 counts
+ * latencies below 1 microsecond and last bucket counts everything from 2^30
+ * microseconds, about 17.9 minutes. Percentiles are upper bounds of their
+ * bucket, within a factor of two.
+ * </ul>
+ * Recording is lock free and doesn't allocate.
+ *
+ * @author jiangzhen
+ *
+ */
+public class LatencyHistogram {
+
+	private static final int BUCKETS = 32;
+
+	private AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+
+	private AtomicLong mCount = new AtomicLong();
+
+	private AtomicLong mTotalNanos = new AtomicLong();
+
+	private AtomicLong mMaxNanos = new AtomicLong();
+
+	/**
+	 *
+	 * @param nanos
+	 *            latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		long micros = nanos / 1000;
+		int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+		mBuckets.incrementAndGet(bucket);
+		mCount.incrementAndGet();
+		mTotalNanos.addAndGet(nanos);
+		long max;
+		do {
+			max = mMaxNanos.get();
+		} while (nanos > max && !mMaxNanos.compareAndSet(max, nanos));
+	}
+
+	public long count() {
+		return mCount.get();
+	}
+
+	/**
+	 *
+	 * @return mean latency in milliseconds
+	 */
+	public double mean() {
+		long count = mCount.get();
+		return count == 0 ? 0 : mTotalNanos.get() / 1e6 / count;
+	}
+
+	/**
+	 *
+	 * @return maximal latency in milliseconds
+	 */
+	public double max() {
+		return mMaxNanos.get() / 1e6;
+	}
+
+	/**
+	 * Get latency which given ratio of records are below.
+	 *
+	 * @param ratio
+	 *            in [0, 1], such as 0.99
+	 * @return upper bound of bucket in milliseconds, 0 if nothing is recorded
+	 */
+	public double percentile(double ratio) {
+		long count = mCount.get();
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(ratio * count);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += mBuckets.get(i);
+			if (seen >= rank) {
+				return (1L << i) / 1000.0;
+			}
+		}
+		return max();
+	}
+
+	/**
+	 *
+	 * @param bucket
+	 *            index of bucket
+	 * @return count of records in bucket
+	 */
+	public long bucketCount(int bucket) {
+		return mBuckets.get(bucket);
+	}
+
+	public int bucketSize() {
+		return BUCKETS;
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			mBuckets.set(i, 0);
+		}
+		mCount.set(0);
+		mTotalNanos.set(0);
+		mMaxNanos.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.US, "n=%d mean=%.2fms p50<%.2fms p90<%.2fms p99<%.2fms max=%.2fms",
+				count(), mean(), percentile(0.5), percentile(0.9),
+				percentile(0.99), max());
+	}
+}
@@ -0,0 +1,848 @@
+package com.easygis.util;
+
+import java.util.Arrays;
+
+/**
+ * LRU cache with primitive long keys.<br>
+ * <ul>
+ * Same contract as {@link android.support.v4.util.LruCache}, but keys are not
+ * boxed and entries live in parallel arrays, so {@link #get(long)} doesn't
+ * allocate any object.
+ * </ul>
+ * <ul>
+ * Entries are indexed by an open addressing hash table and linked in doubly
+ * linked lists by slot index. Most recently used entry is at head.
+ * </ul>
+ * <ul>
+ * Eviction follows {@link EvictionPolicy}. LRU_2 and ARC keep entries seen
+ * more than once apart from entries seen once, and remember keys of evicted
+ * entries as ghosts, so a scan of new keys can't flush the frequent ones.
+ * </ul>
+ *
+ * @param <V>
+ *            value type
+ */
+public class LongLruCache<V> {
+
+	/**
+	 * How the cache chooses entry to evict
+	 */
+	public enum EvictionPolicy {
+		/**
+		 * Least recently used entry goes first
+		 */
+		LRU,
+		/**
+		 * 2Q approximation of LRU-2. New entries live in a FIFO recent list
+		 * limited to 1/4 of cache, hits there are taken as correlated
+		 * references. Keys evicted from recent list are remembered, a new put
+		 * of them moves entry to frequent list.
+		 */
+		LRU_2,
+		/**
+		 * Adaptive replacement cache. Recent and frequent lists share the
+		 * cache, their split adapts to hits in ghost lists of both.
+		 */
+		ARC
+	}
+
+	private static final int NONE = -1;
+
+	/**
+	 * Entries seen once, LRU uses only this list
+	 */
+	private static final int RECENT = 0;
+
+	/**
+	 * Entries seen more than once
+	 */
+	private static final int FREQUENT = 1;
+
+	/**
+	 * Keys evicted from RECENT
+	 */
+	private static final int RECENT_GHOST = 2;
+
+	/**
+	 * Keys evicted from FREQUENT
+	 */
+	private static final int FREQUENT_GHOST = 3;
+
+	private static final int LISTS = 4;
+
+	/**
+	 * LRU_2 keeps entries seen once in 1/4 of cache
+	 */
+	private static final int RECENT_SHARE = 4;
+
+	private long[] mKeys;
+
+	private Object[] mValues;
+
+	private int[] mSizes;
+
+	private int[] mPrev;
+
+	private int[] mNext;
+
+	/**
+	 * List of each slot
+	 */
+	private byte[] mList;
+
+	/**
+	 * Hash index, hold slot + 1, 0 means empty
+	 */
+	private int[] mIndex;
+
+	private int mIndexMask;
+
+	private int mFree = NONE;
+
+	private int mUsed;
+
+	private int[] mHeads = new int[LISTS];
+
+	private int[] mTails = new int[LISTS];
+
+	/**
+	 * Sum of entry sizes of each list, ghosts keep size of evicted entry
+	 */
+	private int[] mListSizes = new int[LISTS];
+
+	private EvictionPolicy mPolicy;
+
+	/**
+	 * ARC target size of RECENT list
+	 */
+	private int mRecentTarget;
+
+	private int mCount;
+
+	private int mSize;
+
+	private int mMaxSize;
+
+	private int mPutCount;
+
+	private int mEvictionCount;
+
+	private int mHitCount;
+
+	private int mMissCount;
+
+	/**
+	 * @param maxSize
+	 *            for caches that do not override {@link #sizeOf}, this is the
+	 *            maximum number of entries in the cache. For all other caches,
+	 *            this is the maximum sum of the sizes of the entries in this
+	 *            cache.
+	 */
+	public LongLruCache(int maxSize) {
+		this(maxSize, 16);
+	}
+
+	/**
+	 * @param maxSize
+	 *            maximal size of cache
+	 * @param initialCapacity
+	 *            initial count of entries without growing
+	 */
+	public LongLruCache(int maxSize, int initialCapacity) {
+		this(maxSize, initialCapacity, EvictionPolicy.LRU);
+	}
+
+	/**
+	 * @param maxSize
+	 *            maximal size of cache
+	 * @param initialCapacity
+	 *            initial count of entries without growing
+	 * @param policy
+	 *            eviction policy
+	 */
+	public LongLruCache(int maxSize, int initialCapacity, EvictionPolicy policy) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize <= 0");
+		}
+		if (policy == null) {
+			throw new NullPointerException("policy == null");
+		}
+		this.mMaxSize = maxSize;
+		this.mPolicy = policy;
+		Arrays.fill(mHeads, NONE);
+		Arrays.fill(mTails, NONE);
+		allocate(Math.max(4, initialCapacity));
+	}
+
+	/**
+	 * Returns the value for key if it exists in the cache. Value is moved to
+	 * the head of the queue.
+	 *
+	 * @param key
+	 * @return null if not exist
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized V get(long key) {
+		int slot = findLive(key);
+		if (slot == NONE) {
+			mMissCount++;
+			return null;
+		}
+		mHitCount++;
+		access(slot);
+		return (V) mValues[slot];
+	}
+
+	/**
+	 * Returns the value for key without updating queue order and statistics.
+	 *
+	 * @param key
+	 * @return null if not exist
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized V peek(long key) {
+		int slot = findLive(key);
+		return slot == NONE ? null : (V) mValues[slot];
+	}
+
+	public synchronized boolean containsKey(long key) {
+		return findLive(key) != NONE;
+	}
+
+	/**
+	 * Caches value for key. The value is moved to the head of the queue.
+	 *
+	 * @param key
+	 * @param value
+	 * @return the previous value mapped by key.
+	 */
+	@SuppressWarnings("unchecked")
+	public final V put(long key, V value) {
+		if (value == null) {
+			throw new NullPointerException("value == null");
+		}
+		V previous = null;
+		synchronized (this) {
+			mPutCount++;
+			int size = safeSizeOf(key, value);
+			int slot = find(key);
+			if (slot != NONE && isLive(slot)) {
+				previous = (V) mValues[slot];
+				int list = mList[slot];
+				unlink(slot);
+				mSize -= mSizes[slot];
+				mSizes[slot] = size;
+				link(slot, list);
+				access(slot);
+			} else if (slot != NONE) {
+				// Seen before, key comes back from ghost list
+				adapt(mList[slot], size);
+				unlink(slot);
+				mSizes[slot] = size;
+				link(slot, FREQUENT);
+				mCount++;
+			} else {
+				slot = allocSlot();
+				mKeys[slot] = key;
+				insertIndex(slot);
+				mSizes[slot] = size;
+				link(slot, RECENT);
+				mCount++;
+			}
+			mValues[slot] = value;
+			mSize += size;
+		}
+		if (previous != null) {
+			entryRemoved(false, key, previous, value);
+		}
+		trimToSize(mMaxSize);
+		return previous;
+	}
+
+	/**
+	 * Removes the entry for key if it exists.
+	 *
+	 * @param key
+	 * @return the previous value mapped by key.
+	 */
+	@SuppressWarnings("unchecked")
+	public final V remove(long key) {
+		V previous;
+		synchronized (this) {
+			int slot = find(key);
+			if (slot == NONE) {
+				return null;
+			}
+			if (!isLive(slot)) {
+				freeSlot(slot);
+				return null;
+			}
+			previous = (V) mValues[slot];
+			removeSlot(slot);
+		}
+		entryRemoved(false, key, previous, null);
+		return previous;
+	}
+
+	/**
+	 * Remove entries chosen by eviction policy until the total of remaining
+	 * entries is at or below the requested size. Entries which are not
+	 * evictable are kept, so cache may stay above the requested size.
+	 *
+	 * @param maxSize
+	 *            the maximum size of the cache before returning. May be -1 to
+	 *            evict even 0-sized elements.
+	 */
+	public void trimToSize(int maxSize) {
+		trim(maxSize, false);
+	}
+
+	/**
+	 * Evict until size is at or below maxSize, or only pinned entries are
+	 * left unless force is true.
+	 */
+	@SuppressWarnings("unchecked")
+	private void trim(int maxSize, boolean force) {
+		while (true) {
+			long key;
+			V value;
+			synchronized (this) {
+				if (mSize <= maxSize || mCount == 0) {
+					break;
+				}
+				int slot = victim(force);
+				if (slot == NONE) {
+					break;
+				}
+				key = mKeys[slot];
+				value = (V) mValues[slot];
+				evictSlot(slot);
+				mEvictionCount++;
+			}
+			entryRemoved(true, key, value, null);
+		}
+	}
+
+	/**
+	 * Evict all entries whose key is accepted by filter, including entries
+	 * which are not evictable.
+	 *
+	 * @param filter
+	 *            key filter
+	 * @return count of evicted entries
+	 */
+	@SuppressWarnings("unchecked")
+	public int evict(KeyFilter filter) {
+		long[] keys;
+		Object[] values;
+		int count = 0;
+		synchronized (this) {
+			keys = new long[mCount];
+			values = new Object[mCount];
+			for (int list = RECENT; list <= FREQUENT; list++) {
+				int slot = mHeads[list];
+				while (slot != NONE) {
+					int next = mNext[slot];
+					if (filter.accept(mKeys[slot])) {
+						keys[count] = mKeys[slot];
+						values[count] = mValues[slot];
+						count++;
+						removeSlot(slot);
+						mEvictionCount++;
+					}
+					slot = next;
+				}
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			entryRemoved(true, keys[i], (V) values[i], null);
+		}
+		return count;
+	}
+
+	/**
+	 * Sets the size of the cache and evicts entries if needed.
+	 *
+	 * @param maxSize
+	 *            new maximal size
+	 */
+	public void resize(int maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize <= 0");
+		}
+		synchronized (this) {
+			mMaxSize = maxSize;
+			mRecentTarget = Math.min(mRecentTarget, maxSize);
+		}
+		trimToSize(maxSize);
+		synchronized (this) {
+			trimGhosts();
+		}
+	}
+
+	/**
+	 * Clear the cache, calling {@link #entryRemoved} on each removed entry.
+	 * Entries which are not evictable are removed too, remembered keys of
+	 * evicted entries are forgotten.
+	 */
+	public final void evictAll() {
+		trim(-1, true);
+		synchronized (this) {
+			clearGhosts();
+		}
+	}
+
+	/**
+	 * Change eviction policy. Entries seen more than once are kept ahead of
+	 * entries seen once, remembered keys are forgotten.
+	 *
+	 * @param policy
+	 *            new policy
+	 */
+	public synchronized void setEvictionPolicy(EvictionPolicy policy) {
+		if (policy == null) {
+			throw new NullPointerException("policy == null");
+		}
+		if (policy == mPolicy) {
+			return;
+		}
+		clearGhosts();
+		while (mTails[FREQUENT] != NONE) {
+			int slot = mTails[FREQUENT];
+			unlink(slot);
+			link(slot, RECENT);
+		}
+		mRecentTarget = 0;
+		mPolicy = policy;
+	}
+
+	public synchronized EvictionPolicy getEvictionPolicy() {
+		return mPolicy;
+	}
+
+	/**
+	 * Called for entries that have been evicted or removed. This method is
+	 * invoked without synchronization.
+	 *
+	 * @param evicted
+	 *            true if the entry is being removed to make space, false if
+	 *            the removal was caused by a {@link #put} or {@link #remove}.
+	 * @param key
+	 * @param oldValue
+	 * @param newValue
+	 *            the new value for key, if it exists. If non-null, this
+	 *            removal was caused by a {@link #put}. Otherwise it was caused
+	 *            by an eviction or a {@link #remove}.
+	 */
+	protected void entryRemoved(boolean evicted, long key, V oldValue,
+			V newValue) {
+	}
+
+	/**
+	 * Returns the size of the entry in user-defined units. The default
+	 * implementation returns 1.<br>
+	 * An entry's size must not change while it is in the cache.
+	 *
+	 * @param key
+	 * @param value
+	 * @return
+	 */
+	protected int sizeOf(long key, V value) {
+		return 1;
+	}
+
+	/**
+	 * Returns false to keep entry when cache is trimmed, such as an entry
+	 * which is still in use. The default implementation returns true.<br>
+	 * Called with cache locked, pinned entries are walked over on each
+	 * eviction, so keep them few.
+	 *
+	 * @param key
+	 * @param value
+	 * @return
+	 */
+	protected boolean isEvictable(long key, V value) {
+		return true;
+	}
+
+	private int safeSizeOf(long key, V value) {
+		int result = sizeOf(key, value);
+		if (result < 0) {
+			throw new IllegalStateException("Negative size: " + key + "="
+					+ value);
+		}
+		return result;
+	}
+
+	public synchronized final int size() {
+		return mSize;
+	}
+
+	public synchronized final int maxSize() {
+		return mMaxSize;
+	}
+
+	/**
+	 *
+	 * @return count of entries in cache
+	 */
+	public synchronized final int count() {
+		return mCount;
+	}
+
+	/**
+	 * Returns keys of entries from least to most valuable, putting them back
+	 * in this order rebuilds the same queue.
+	 *
+	 * @return keys of live entries
+	 */
+	public synchronized long[] keys() {
+		long[] keys = new long[mCount];
+		int count = 0;
+		for (int list = RECENT; list <= FREQUENT; list++) {
+			for (int slot = mTails[list]; slot != NONE; slot = mPrev[slot]) {
+				keys[count++] = mKeys[slot];
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 *
+	 * @return count of remembered keys of evicted entries
+	 */
+	public synchronized final int ghostCount() {
+		int count = 0;
+		for (int list = RECENT_GHOST; list <= FREQUENT_GHOST; list++) {
+			for (int slot = mHeads[list]; slot != NONE; slot = mNext[slot]) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public synchronized final int hitCount() {
+		return mHitCount;
+	}
+
+	public synchronized final int missCount() {
+		return mMissCount;
+	}
+
+	public synchronized final int putCount() {
+		return mPutCount;
+	}
+
+	public synchronized final int evictionCount() {
+		return mEvictionCount;
+	}
+
+	@Override
+	public synchronized final String toString() {
+		int accesses = mHitCount + mMissCount;
+		int hitPercent = accesses != 0 ? (100 * mHitCount / accesses) : 0;
+		return "LongLruCache[maxSize=" + mMaxSize + ",policy=" + mPolicy
+				+ ",hits=" + mHitCount + ",misses=" + mMissCount + ",hitRate="
+				+ hitPercent + "%]";
+	}
+
+	/**
+	 * Filter of cache keys
+	 */
+	public interface KeyFilter {
+
+		public boolean accept(long key);
+	}
+
+	private void access(int slot) {
+		int list;
+		if (mPolicy == EvictionPolicy.LRU) {
+			list = RECENT;
+		} else if (mPolicy == EvictionPolicy.LRU_2 && mList[slot] == RECENT) {
+			// Correlated reference, entry is promoted only if it comes back
+			// after eviction
+			return;
+		} else {
+			list = FREQUENT;
+		}
+		unlink(slot);
+		link(slot, list);
+	}
+
+	/**
+	 * Pick entry to evict, list chosen by policy first, then the other list.
+	 *
+	 * @return NONE if all live entries are pinned
+	 */
+	private int victim(boolean force) {
+		int first = RECENT;
+		int recent = mTails[RECENT];
+		int frequent = mTails[FREQUENT];
+		switch (mPolicy) {
+		case LRU_2:
+			if (recent == NONE
+					|| (frequent != NONE && mListSizes[RECENT] <= mMaxSize
+							/ RECENT_SHARE)) {
+				first = FREQUENT;
+			}
+			break;
+		case ARC:
+			if (recent == NONE
+					|| (frequent != NONE && mListSizes[RECENT] <= mRecentTarget)) {
+				first = FREQUENT;
+			}
+			break;
+		default:
+			break;
+		}
+		int slot = evictableTail(first, force);
+		if (slot == NONE) {
+			slot = evictableTail(first == RECENT ? FREQUENT : RECENT, force);
+		}
+		return slot;
+	}
+
+	/**
+	 * Least valuable entry of list which can be evicted
+	 */
+	@SuppressWarnings("unchecked")
+	private int evictableTail(int list, boolean force) {
+		for (int slot = mTails[list]; slot != NONE; slot = mPrev[slot]) {
+			if (force || isEvictable(mKeys[slot], (V) mValues[slot])) {
+				return slot;
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * Drop value of slot, key stays as ghost if policy keeps history
+	 */
+	private void evictSlot(int slot) {
+		int list = mList[slot];
+		if (mPolicy == EvictionPolicy.LRU
+				|| (mPolicy == EvictionPolicy.LRU_2 && list == FREQUENT)) {
+			removeSlot(slot);
+			return;
+		}
+		unlink(slot);
+		mValues[slot] = null;
+		mSize -= mSizes[slot];
+		mCount--;
+		link(slot, list == RECENT ? RECENT_GHOST : FREQUENT_GHOST);
+		trimGhosts();
+	}
+
+	/**
+	 * ARC moves target size of RECENT list toward the list whose ghost is hit
+	 */
+	private void adapt(int ghostList, int size) {
+		if (mPolicy != EvictionPolicy.ARC) {
+			return;
+		}
+		long recentGhost = mListSizes[RECENT_GHOST];
+		long frequentGhost = mListSizes[FREQUENT_GHOST];
+		if (ghostList == RECENT_GHOST) {
+			long delta = recentGhost > 0 ? Math.max(size, size
+					* frequentGhost / recentGhost) : size;
+			mRecentTarget = (int) Math.min(mMaxSize, mRecentTarget + delta);
+		} else {
+			long delta = frequentGhost > 0 ? Math.max(size, size
+					* recentGhost / frequentGhost) : size;
+			mRecentTarget = (int) Math.max(0, mRecentTarget - delta);
+		}
+	}
+
+	/**
+	 * Keep ghost lists bounded: ARC keeps RECENT with its ghost within cache
+	 * size and all lists within twice of it, LRU_2 keeps ghosts of half cache.
+	 */
+	private void trimGhosts() {
+		if (mPolicy == EvictionPolicy.ARC) {
+			while (mTails[RECENT_GHOST] != NONE
+					&& mListSizes[RECENT] + mListSizes[RECENT_GHOST] > mMaxSize) {
+				freeSlot(mTails[RECENT_GHOST]);
+			}
+			while (mTails[FREQUENT_GHOST] != NONE
+					&& (long) mSize + mListSizes[RECENT_GHOST]
+							+ mListSizes[FREQUENT_GHOST] > 2L * mMaxSize) {
+				freeSlot(mTails[FREQUENT_GHOST]);
+			}
+		} else {
+			while (mTails[RECENT_GHOST] != NONE
+					&& mListSizes[RECENT_GHOST] > mMaxSize / 2) {
+				freeSlot(mTails[RECENT_GHOST]);
+			}
+		}
+	}
+
+	private void clearGhosts() {
+		while (mTails[RECENT_GHOST] != NONE) {
+			freeSlot(mTails[RECENT_GHOST]);
+		}
+		while (mTails[FREQUENT_GHOST] != NONE) {
+			freeSlot(mTails[FREQUENT_GHOST]);
+		}
+	}
+
+	private boolean isLive(int slot) {
+		return mList[slot] <= FREQUENT;
+	}
+
+	private void allocate(int capacity) {
+		mKeys = new long[capacity];
+		mValues = new Object[capacity];
+		mSizes = new int[capacity];
+		mPrev = new int[capacity];
+		mNext = new int[capacity];
+		mList = new byte[capacity];
+		mIndex = new int[indexSizeFor(capacity)];
+		mIndexMask = mIndex.length - 1;
+	}
+
+	private static int indexSizeFor(int capacity) {
+		int size = Integer.highestOneBit(capacity) << 1;
+		return size < capacity * 2 ? size << 1 : size;
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 * Find slot of key, including ghosts
+	 */
+	private int find(long key) {
+		int[] index = mIndex;
+		int i = hash(key) & mIndexMask;
+		while (true) {
+			int slot = index[i] - 1;
+			if (slot == NONE) {
+				return NONE;
+			}
+			if (mKeys[slot] == key) {
+				return slot;
+			}
+			i = (i + 1) & mIndexMask;
+		}
+	}
+
+	private int findLive(long key) {
+		int slot = find(key);
+		return slot != NONE && isLive(slot) ? slot : NONE;
+	}
+
+	private void insertIndex(int slot) {
+		int i = hash(mKeys[slot]) & mIndexMask;
+		while (mIndex[i] != 0) {
+			i = (i + 1) & mIndexMask;
+		}
+		mIndex[i] = slot + 1;
+	}
+
+	/**
+	 * Remove slot from hash index by backward shift, so no tombstone is
+	 * needed.
+	 */
+	private void removeIndex(int slot) {
+		int gap = hash(mKeys[slot]) & mIndexMask;
+		while (mIndex[gap] != slot + 1) {
+			gap = (gap + 1) & mIndexMask;
+		}
+		int i = gap;
+		while (true) {
+			i = (i + 1) & mIndexMask;
+			int s = mIndex[i];
+			if (s == 0) {
+				break;
+			}
+			int home = hash(mKeys[s - 1]) & mIndexMask;
+			boolean stay = gap <= i ? (home > gap && home <= i)
+					: (home > gap || home <= i);
+			if (!stay) {
+				mIndex[gap] = s;
+				gap = i;
+			}
+		}
+		mIndex[gap] = 0;
+	}
+
+	private int allocSlot() {
+		if (mFree != NONE) {
+			int slot = mFree;
+			mFree = mNext[slot];
+			return slot;
+		}
+		if (mUsed == mKeys.length) {
+			grow();
+		}
+		return mUsed++;
+	}
+
+	private void grow() {
+		int capacity = mKeys.length * 2;
+		mKeys = Arrays.copyOf(mKeys, capacity);
+		mValues = Arrays.copyOf(mValues, capacity);
+		mSizes = Arrays.copyOf(mSizes, capacity);
+		mPrev = Arrays.copyOf(mPrev, capacity);
+		mNext = Arrays.copyOf(mNext, capacity);
+		mList = Arrays.copyOf(mList, capacity);
+		mIndex = new int[indexSizeFor(capacity)];
+		mIndexMask = mIndex.length - 1;
+		for (int list = 0; list < LISTS; list++) {
+			for (int slot = mHeads[list]; slot != NONE; slot = mNext[slot]) {
+				insertIndex(slot);
+			}
+		}
+	}
+
+	/**
+	 * Remove live entry
+	 */
+	private void removeSlot(int slot) {
+		mSize -= mSizes[slot];
+		mCount--;
+		freeSlot(slot);
+	}
+
+	private void freeSlot(int slot) {
+		removeIndex(slot);
+		unlink(slot);
+		mValues[slot] = null;
+		mSizes[slot] = 0;
+		mNext[slot] = mFree;
+		mFree = slot;
+	}
+
+	private void link(int slot, int list) {
+		mList[slot] = (byte) list;
+		mPrev[slot] = NONE;
+		mNext[slot] = mHeads[list];
+		if (mHeads[list] != NONE) {
+			mPrev[mHeads[list]] = slot;
+		}
+		mHeads[list] = slot;
+		if (mTails[list] == NONE) {
+			mTails[list] = slot;
+		}
+		mListSizes[list] += mSizes[slot];
+	}
+
+	private void unlink(int slot) {
+		int list = mList[slot];
+		int prev = mPrev[slot];
+		int next = mNext[slot];
+		if (prev != NONE) {
+			mNext[prev] = next;
+		} else {
+			mHeads[list] = next;
+		}
+		if (next != NONE) {
+			mPrev[next] = prev;
+		} else {
+			mTails[list] = prev;
+		}
+		mListSizes[list] -= mSizes[slot];
+	}
+}
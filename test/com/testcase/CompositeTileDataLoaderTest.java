@@ -0,0 +1,263 @@
+package com.testcase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.easygis.map.MapInfo;
+import com.easygis.map.Tile;
+import com.easygis.map.TileKey;
+import com.easygis.map.TileRange;
+import com.easygis.map.layer.TileDataLoaderCallback;
+import com.easygis.map.layer.WritableTileDataLoader;
+import com.easygis.map.service.AbstractTileDataLoader;
+import com.easygis.map.service.CompositeTileDataLoader;
+import com.easygis.util.LatencyHistogram;
+
+public class CompositeTileDataLoaderTest extends TestCase {
+
+	public void testLatencyHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0.0, histogram.percentile(0.5));
+		for (int i = 0; i < 90; i++) {
+			histogram.record(100 * 1000L);
+		}
+		for (int i = 0; i < 10; i++) {
+			histogram.record(50 * 1000 * 1000L);
+		}
+		assertEquals(100, histogram.count());
+		// 100us lies in [64us, 128us)
+		assertEquals(0.128, histogram.percentile(0.5), 1e-9);
+		assertEquals(0.128, histogram.percentile(0.9), 1e-9);
+		assertTrue(histogram.percentile(0.99) >= 50);
+		assertEquals(50.0, histogram.max(), 1e-9);
+		assertEquals(5.09, histogram.mean(), 1e-9);
+	}
+
+	public void testChainWritesBack() {
+		MapTier memory = new MapTier(true);
+		MapTier archive = new MapTier(false);
+		MapTier remote = new MapTier(false);
+		Tile tile = tile(1, 2, 3);
+		remote.putTile(tile);
+		CompositeTileDataLoader chain = new CompositeTileDataLoader(memory,
+				archive, remote);
+
+		assertSame(tile, chain.getTile(1, 2, 3));
+		assertEquals(1, chain.getMissCount(0));
+		assertEquals(1, chain.getMissCount(1));
+		assertEquals(1, chain.getHitCount(2));
+		assertEquals(1, chain.getLatency(2).count());
+		assertSame(tile, memory.getCachedTile(1, 2, 3));
+		assertSame(tile, archive.getTile(1, 2, 3));
+
+		// Served from memory of fastest tier now, no load
+		assertEquals(0, chain.getMemoryHitCount(0));
+		assertSame(tile, chain.getTile(1, 2, 3));
+		assertEquals(1, chain.getMemoryHitCount(0));
+		assertEquals(0, chain.getHitCount(0));
+		assertEquals(1, chain.getHitCount(2));
+		assertEquals(1, chain.getMissCount(0));
+
+		assertNull(chain.getTile(9, 9, 9));
+		assertEquals(1, chain.getMissCount(2));
+		assertEquals(2, chain.getMissCount(0));
+	}
+
+	public void testAsyncLoad() throws InterruptedException {
+		MapTier memory = new MapTier(true);
+		MapTier remote = new MapTier(false);
+		remote.putTile(tile(4, 5, 6));
+		CompositeTileDataLoader chain = new CompositeTileDataLoader(memory,
+				remote);
+		final CountDownLatch done = new CountDownLatch(2);
+		final Tile[] loaded = new Tile[2];
+		TileDataLoaderCallback callback = new TileDataLoaderCallback() {
+
+			@Override
+			public void tileLoadedNotification(int row, int col, int zoom,
+					Tile tile) {
+				loaded[row == 4 ? 0 : 1] = tile;
+				done.countDown();
+			}
+		};
+		assertNull(chain.getTileAsync(4, 5, 6, callback));
+		assertNull(chain.getTileAsync(7, 7, 6, callback));
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertNotNull(loaded[0]);
+		assertNull(loaded[1]);
+		assertSame(loaded[0], chain.getTileAsync(4, 5, 6, callback));
+		chain.unLoad();
+	}
+
+	public void testKnownMissingSkipsTiers() {
+		AtomicInteger decodes = new AtomicInteger();
+		CompositeTileDataLoader chain = new CompositeTileDataLoader(
+				emptyTier(decodes), emptyTier(decodes));
+		assertNull(chain.getTile(1, 2, 3));
+		assertEquals(2, decodes.get());
+		assertEquals(1, chain.getMissCount(1));
+
+		// Both tiers recorded the tile missing, chain doesn't walk them again
+		assertNull(chain.getTile(1, 2, 3));
+		assertNull(chain.getTileAsync(1, 2, 3, null));
+		chain.prefetchTile(1, 2, 3);
+		assertEquals(2, decodes.get());
+		assertEquals(1, chain.getMissCount(1));
+		chain.unLoad();
+	}
+
+	public void testBatchReadInTierOrder() throws InterruptedException {
+		MapTier memory = new MapTier(true);
+		memory.putTile(tile(1, 0, 5));
+		final List<long[]> readAheads = new ArrayList<long[]>();
+		MapInfo info = new MapInfo();
+		info.mTileWidth = 256;
+		info.mTileHeight = 256;
+		AbstractTileDataLoader archive = new AbstractTileDataLoader(info) {
+
+			@Override
+			protected Bitmap decodeTile(int row, int col, int zoom,
+					BitmapFactory.Options options) {
+				return null;
+			}
+
+			@Override
+			protected long readOrderOf(long key) {
+				return -key;
+			}
+
+			@Override
+			protected void readAhead(long[] keys) {
+				synchronized (readAheads) {
+					readAheads.add(keys);
+				}
+			}
+		};
+		CompositeTileDataLoader chain = new CompositeTileDataLoader(memory,
+				archive);
+		final CountDownLatch done = new CountDownLatch(8);
+		TileDataLoaderCallback callback = new TileDataLoaderCallback() {
+
+			@Override
+			public void tileLoadedNotification(int row, int col, int zoom,
+					Tile tile) {
+				done.countDown();
+			}
+		};
+		Tile[] tiles = chain.getTiles(new TileRange(5, 1, 0, 1, 8), callback);
+		assertNotNull(tiles[0]);
+		assertEquals(1, chain.getMemoryHitCount(0));
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		// One run of two tiles per worker, archive reads each run backwards
+		assertEquals(4, readAheads.size());
+		for (long[] keys : readAheads) {
+			assertEquals(2, keys.length);
+			assertTrue(keys[0] > keys[1]);
+		}
+		assertEquals(8, chain.getMissCount(0));
+		assertEquals(8, chain.getMissCount(1));
+		chain.unLoad();
+	}
+
+	private static AbstractTileDataLoader emptyTier(final AtomicInteger decodes) {
+		MapInfo info = new MapInfo();
+		info.mTileWidth = 256;
+		info.mTileHeight = 256;
+		return new AbstractTileDataLoader(info) {
+
+			@Override
+			protected Bitmap decodeTile(int row, int col, int zoom,
+					BitmapFactory.Options options) {
+				decodes.incrementAndGet();
+				return null;
+			}
+		};
+	}
+
+	private static Tile tile(int row, int col, int zoom) {
+		Tile tile = new Tile();
+		tile.mRow = row;
+		tile.mCol = col;
+		tile.mZoom = zoom;
+		return tile;
+	}
+
+	/**
+	 * Tier of tiles in a map
+	 */
+	private static class MapTier implements WritableTileDataLoader {
+
+		private Map<Long, Tile> tiles = new HashMap<Long, Tile>();
+
+		private boolean memory;
+
+		MapTier(boolean memory) {
+			this.memory = memory;
+		}
+
+		@Override
+		public synchronized void putTile(Tile tile) {
+			tiles.put(TileKey.pack(tile.mRow, tile.mCol, tile.mZoom), tile);
+		}
+
+		@Override
+		public synchronized Tile getTile(int row, int col, int zoom) {
+			return tiles.get(TileKey.pack(row, col, zoom));
+		}
+
+		@Override
+		public Tile getCachedTile(int row, int col, int zoom) {
+			return memory ? getTile(row, col, zoom) : null;
+		}
+
+		@Override
+		public Tile getTileAsync(int row, int col, int zoom,
+				TileDataLoaderCallback callback) {
+			return getTile(row, col, zoom);
+		}
+
+		@Override
+		public Tile[] getTiles(TileRange range, TileDataLoaderCallback callback) {
+			Tile[] result = new Tile[range.count()];
+			for (int row = range.startRow; row <= range.endRow; row++) {
+				for (int col = range.startCol; col <= range.endCol; col++) {
+					result[range.indexOf(row, col)] = getTile(row, col, range.zoom);
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public void prefetchTile(int row, int col, int zoom) {
+		}
+
+		@Override
+		public void updateViewport(TileRange visible, TileRange target) {
+		}
+
+		@Override
+		public void init() {
+		}
+
+		@Override
+		public void load() {
+		}
+
+		@Override
+		public void unLoad() {
+		}
+
+		@Override
+		public void trimMemory(int level) {
+		}
+	}
+}
@@ -0,0 +1,195 @@
+package com.testcase;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.easygis.map.TileKey;
+import com.easygis.util.LongLruCache;
+import com.easygis.util.LongLruCache.EvictionPolicy;
+
+/**
+ * Replay pan traces against eviction policies and compare hit ratios.<br>
+ * A recorded trace, one "row col zoom" request per line, is replayed too if
+ * system property easygis.trace points to it.
+ */
+public class EvictionReplayTest extends TestCase {
+
+	private static final int CACHE_TILES = 48;
+
+	private static final int VIEW_ROWS = 3;
+
+	private static final int VIEW_COLS = 4;
+
+	public void testArcScanResistance() {
+		LongLruCache<String> cache = new LongLruCache<String>(8, 8,
+				EvictionPolicy.ARC);
+		for (int round = 0; round < 2; round++) {
+			for (long key = 0; key < 4; key++) {
+				if (cache.get(key) == null) {
+					cache.put(key, "home");
+				}
+			}
+		}
+		for (long key = 100; key < 200; key++) {
+			cache.put(key, "scan");
+		}
+		for (long key = 0; key < 4; key++) {
+			assertNotNull(cache.get(key));
+		}
+		assertTrue(cache.size() <= 8);
+	}
+
+	public void testLru2ScanResistance() {
+		LongLruCache<String> cache = new LongLruCache<String>(8, 8,
+				EvictionPolicy.LRU_2);
+		for (long key = 0; key < 4; key++) {
+			cache.put(key, "home");
+			// Correlated reference doesn't promote
+			cache.get(key);
+		}
+		for (long key = 100; key < 108; key++) {
+			cache.put(key, "pan");
+		}
+		for (long key = 0; key < 4; key++) {
+			assertNull(cache.get(key));
+			cache.put(key, "home");
+		}
+		for (long key = 200; key < 300; key++) {
+			cache.put(key, "scan");
+		}
+		for (long key = 0; key < 4; key++) {
+			assertNotNull(cache.get(key));
+		}
+		assertTrue(cache.size() <= 8);
+	}
+
+	public void testGhostComesBackFrequent() {
+		LongLruCache<String> cache = new LongLruCache<String>(4, 4,
+				EvictionPolicy.ARC);
+		cache.put(0, "v");
+		cache.put(1, "v");
+		cache.get(0);
+		cache.get(1);
+		for (long key = 2; key < 8; key++) {
+			cache.put(key, "v");
+		}
+		assertEquals(2, cache.ghostCount());
+		assertNull(cache.peek(5));
+		cache.put(5, "v");
+		assertEquals("v", cache.peek(5));
+		assertEquals(4, cache.count());
+		assertEquals("v", cache.peek(0));
+		cache.evictAll();
+		assertEquals(0, cache.count());
+		assertEquals(0, cache.ghostCount());
+	}
+
+	public void testSwitchPolicy() {
+		LongLruCache<String> cache = new LongLruCache<String>(4, 4,
+				EvictionPolicy.ARC);
+		for (long key = 0; key < 4; key++) {
+			cache.put(key, "v");
+			cache.get(key);
+		}
+		cache.setEvictionPolicy(EvictionPolicy.LRU);
+		cache.put(10, "v");
+		assertNull(cache.peek(0));
+		assertEquals(4, cache.count());
+	}
+
+	public void testReplayPanTrace() throws IOException {
+		long[] trace = panTrace(new Random(7), 400);
+		double lru = replay(trace, EvictionPolicy.LRU);
+		double lru2 = replay(trace, EvictionPolicy.LRU_2);
+		double arc = replay(trace, EvictionPolicy.ARC);
+		// Scan resistant policies keep the working set of a pan
+		assertTrue(arc >= lru);
+		assertTrue(lru2 >= lru);
+
+		String file = System.getProperty("easygis.trace");
+		if (file != null) {
+			long[] recorded = readTrace(file);
+			double recordedLru = replay(recorded, EvictionPolicy.LRU);
+			assertTrue(replay(recorded, EvictionPolicy.ARC) >= recordedLru);
+			assertTrue(replay(recorded, EvictionPolicy.LRU_2) >= recordedLru);
+		}
+	}
+
+	private static double replay(long[] trace, EvictionPolicy policy) {
+		LongLruCache<Object> cache = new LongLruCache<Object>(CACHE_TILES,
+				CACHE_TILES, policy);
+		Object tile = new Object();
+		for (long key : trace) {
+			if (cache.get(key) == null) {
+				cache.put(key, tile);
+			}
+		}
+		return (double) cache.hitCount() / trace.length;
+	}
+
+	/**
+	 * User pans around home area, now and then flings far away and comes
+	 * back.
+	 */
+	private static long[] panTrace(Random random, int moves) {
+		long[] trace = new long[moves * 40 * VIEW_ROWS * VIEW_COLS];
+		int count = 0;
+		int homeRow = 1000;
+		int homeCol = 1000;
+		for (int m = 0; m < moves; m++) {
+			int row = homeRow + random.nextInt(3) - 1;
+			int col = homeCol + random.nextInt(3) - 1;
+			int steps = 1;
+			int dr = 0;
+			int dc = 0;
+			if (random.nextInt(4) == 0) {
+				// Fling: stream of new tiles
+				steps = 20 + random.nextInt(20);
+				dr = random.nextInt(3) - 1;
+				dc = random.nextBoolean() ? 1 : -1;
+			}
+			for (int s = 0; s < steps; s++) {
+				for (int i = 0; i < VIEW_ROWS; i++) {
+					for (int j = 0; j < VIEW_COLS; j++) {
+						trace[count++] = TileKey.pack(row + s * dr + i,
+								col + s * dc + j, 15);
+					}
+				}
+			}
+		}
+		long[] result = new long[count];
+		System.arraycopy(trace, 0, result, 0, count);
+		return result;
+	}
+
+	private static long[] readTrace(String file) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			long[] trace = new long[1024];
+			int count = 0;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] parts = line.trim().split("\\s+");
+				if (parts.length < 3) {
+					continue;
+				}
+				if (count == trace.length) {
+					long[] bigger = new long[count * 2];
+					System.arraycopy(trace, 0, bigger, 0, count);
+					trace = bigger;
+				}
+				trace[count++] = TileKey.pack(Integer.parseInt(parts[0]),
+						Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+			}
+			long[] result = new long[count];
+			System.arraycopy(trace, 0, result, 0, count);
+			return result;
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,358 @@
+package com.testcase;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.easygis.map.MapInfo;
+import com.easygis.map.TileKey;
+import com.easygis.map.service.HttpTileDataLoader;
+
+/**
+ * Runs {@link HttpTileDataLoader} against an embedded HTTP server, which is
+ * plain sockets so it runs on JVM and on device.
+ */
+public class HttpTileDataLoaderTest extends TestCase {
+
+	private TileServer server;
+
+	private File cacheDir;
+
+	private AtomicInteger requests = new AtomicInteger();
+
+	private AtomicInteger notModified = new AtomicInteger();
+
+	private Set<Integer> clientPorts = Collections
+			.synchronizedSet(new HashSet<Integer>());
+
+	private volatile String cacheControl = "max-age=3600";
+
+	private volatile int latencyMs;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		cacheDir = File.createTempFile("httptiles", "");
+		cacheDir.delete();
+		server = new TileServer();
+	}
+
+	protected void tearDown() throws Exception {
+		server.stop();
+		delete(cacheDir);
+		super.tearDown();
+	}
+
+	public void testTileUrl() {
+		HttpTileDataLoader xyz = loader(HttpTileDataLoader.RowOrder.XYZ);
+		assertEquals(base() + "3/5/1.png", xyz.tileUrl(1, 5, 3));
+		HttpTileDataLoader tms = loader(HttpTileDataLoader.RowOrder.TMS);
+		assertEquals(base() + "3/5/6.png", tms.tileUrl(1, 5, 3));
+	}
+
+	public void testWriteThroughAndRevalidate() throws IOException {
+		HttpTileDataLoader loader = loader(HttpTileDataLoader.RowOrder.XYZ);
+		loader.setCacheDir(cacheDir);
+		assertEquals("/tiles/3/5/1.png", new String(loader.fetchTile(1, 5, 3),
+				"UTF-8"));
+		assertEquals(1, requests.get());
+
+		// Fresh copy on disk, no request
+		loader.fetchTile(1, 5, 3);
+		assertEquals(1, requests.get());
+		assertEquals(1, loader.getDiskHitCount());
+
+		// Stale copy is revalidated by ETag
+		cacheControl = "no-cache";
+		loader.fetchTile(2, 5, 3);
+		loader.fetchTile(2, 5, 3);
+		assertEquals(3, requests.get());
+		assertEquals(1, notModified.get());
+		assertEquals(1, loader.getNotModifiedCount());
+
+		// Server doesn't have tile
+		HttpTileDataLoader missing = loader(HttpTileDataLoader.RowOrder.XYZ,
+				base() + "missing/{z}/{x}/{y}.png");
+		assertNull(missing.fetchTile(1, 1, 1));
+
+		// Server is gone, stale copy is still served
+		server.stop();
+		assertEquals("/tiles/3/5/2.png", new String(loader.fetchTile(2, 5, 3),
+				"UTF-8"));
+		assertEquals(1, loader.getStaleServedCount());
+		try {
+			loader.fetchTile(9, 9, 9);
+			fail("uncached tile without server");
+		} catch (IOException e) {
+		}
+	}
+
+	public void testThroughputAndConnectionReuse() throws Exception {
+		final HttpTileDataLoader loader = loader(HttpTileDataLoader.RowOrder.XYZ);
+		final int maxRequests = 4;
+		loader.setMaxConcurrentRequests(maxRequests);
+		latencyMs = 2;
+		final int tiles = 400;
+		ExecutorService workers = Executors.newFixedThreadPool(8);
+		final AtomicInteger failed = new AtomicInteger();
+		long start = System.nanoTime();
+		for (int i = 0; i < tiles; i++) {
+			final int row = i / 20;
+			final int col = i % 20;
+			workers.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						if (loader.fetchTile(row, col, 10) == null) {
+							failed.incrementAndGet();
+						}
+					} catch (IOException e) {
+						failed.incrementAndGet();
+					}
+				}
+			});
+		}
+		workers.shutdown();
+		assertTrue(workers.awaitTermination(60, TimeUnit.SECONDS));
+		double seconds = (System.nanoTime() - start) / 1e9;
+		assertEquals(0, failed.get());
+		assertEquals(tiles, loader.getRequestCount());
+		assertTrue(seconds < 30);
+		// Keep-alive connections are reused instead of one per tile
+		assertTrue(clientPorts.size() <= maxRequests * 2);
+	}
+
+	public void testMemoryTiersExpire() throws IOException {
+		MapInfo info = new MapInfo();
+		ExpiryLoader loader = new ExpiryLoader(info, base() + "{z}/{x}/{y}.png");
+		long fresh = TileKey.pack(1, 5, 3);
+		long stale = TileKey.pack(2, 5, 3);
+		// Tile not loaded from server is never expired
+		assertFalse(loader.expired(fresh));
+
+		loader.fetchTile(1, 5, 3);
+		assertFalse(loader.expired(fresh));
+		// Just fetched no-cache tile is still used from memory
+		cacheControl = "no-cache";
+		loader.fetchTile(2, 5, 3);
+		assertFalse(loader.expired(stale));
+		loader.setMinMemoryFreshness(0);
+		loader.fetchTile(2, 5, 3);
+		assertTrue(loader.expired(stale));
+		// Expire time is dropped once tile is invalidated
+		assertFalse(loader.expired(stale));
+	}
+
+	private static class ExpiryLoader extends HttpTileDataLoader {
+
+		ExpiryLoader(MapInfo info, String template) {
+			super(info, template, HttpTileDataLoader.RowOrder.XYZ);
+		}
+
+		boolean expired(long key) {
+			return isExpired(key);
+		}
+	}
+
+	private HttpTileDataLoader loader(HttpTileDataLoader.RowOrder order) {
+		return loader(order, base() + "{z}/{x}/{y}.png");
+	}
+
+	private HttpTileDataLoader loader(HttpTileDataLoader.RowOrder order,
+			String template) {
+		MapInfo info = new MapInfo();
+		info.mTileWidth = 256;
+		info.mTileHeight = 256;
+		info.mTileExtension = "png";
+		return new HttpTileDataLoader(info, template, order);
+	}
+
+	private String base() {
+		return "http://127.0.0.1:" + server.getPort() + "/tiles/";
+	}
+
+	/**
+	 * Answer one tile request
+	 */
+	private void respond(int clientPort, String path, String ifNoneMatch,
+			OutputStream out) throws IOException {
+		requests.incrementAndGet();
+		clientPorts.add(clientPort);
+		String etag = "\"" + path.hashCode() + "\"";
+		if (latencyMs > 0) {
+			try {
+				Thread.sleep(latencyMs);
+			} catch (InterruptedException e) {
+			}
+		}
+		if (path.contains("/missing")) {
+			writeResponse(out, "404 Not Found", "", new byte[0]);
+			return;
+		}
+		String headers = "ETag: " + etag + "\r\nCache-Control: " + cacheControl
+				+ "\r\n";
+		if (etag.equals(ifNoneMatch)) {
+			notModified.incrementAndGet();
+			writeResponse(out, "304 Not Modified", headers, null);
+			return;
+		}
+		writeResponse(out, "200 OK", headers, path.getBytes("UTF-8"));
+	}
+
+	private static void writeResponse(OutputStream out, String status,
+			String headers, byte[] body) throws IOException {
+		StringBuilder sb = new StringBuilder("HTTP/1.1 ").append(status)
+				.append("\r\n").append(headers);
+		if (body != null) {
+			sb.append("Content-Length: ").append(body.length).append("\r\n");
+		}
+		sb.append("\r\n");
+		out.write(sb.toString().getBytes("ISO-8859-1"));
+		if (body != null) {
+			out.write(body);
+		}
+		out.flush();
+	}
+
+	/**
+	 * 
+	 * @return line without CRLF, null at end of stream
+	 */
+	private static String readLine(InputStream in) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) != '\n') {
+			if (b < 0) {
+				return line.size() == 0 ? null : line.toString("ISO-8859-1");
+			}
+			if (b != '\r') {
+				line.write(b);
+			}
+		}
+		return line.toString("ISO-8859-1");
+	}
+
+	/**
+	 * HTTP/1.1 server with keep-alive connections, one thread per connection
+	 */
+	private class TileServer implements Runnable {
+
+		private ServerSocket socket;
+
+		private ExecutorService connections = Executors.newCachedThreadPool();
+
+		private List<Socket> clients = new ArrayList<Socket>();
+
+		TileServer() throws IOException {
+			socket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+			new Thread(this, "TileServer").start();
+		}
+
+		int getPort() {
+			return socket.getLocalPort();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					final Socket client = socket.accept();
+					synchronized (clients) {
+						clients.add(client);
+					}
+					connections.execute(new Runnable() {
+
+						@Override
+						public void run() {
+							serve(client);
+						}
+					});
+				}
+			} catch (IOException e) {
+				// Stopped
+			}
+		}
+
+		private void serve(Socket client) {
+			try {
+				InputStream in = new BufferedInputStream(client.getInputStream());
+				OutputStream out = new BufferedOutputStream(
+						client.getOutputStream());
+				String request;
+				while ((request = readLine(in)) != null) {
+					String ifNoneMatch = null;
+					String line;
+					while ((line = readLine(in)) != null && line.length() > 0) {
+						if (line.toLowerCase(Locale.US).startsWith(
+								"if-none-match:")) {
+							ifNoneMatch = line.substring(14).trim();
+						}
+					}
+					String[] parts = request.split(" ");
+					respond(client.getPort(), parts[1], ifNoneMatch, out);
+				}
+			} catch (IOException e) {
+				// Client closed connection or server stopped
+			} finally {
+				synchronized (clients) {
+					clients.remove(client);
+				}
+				close(client);
+			}
+		}
+
+		/**
+		 * Close listening socket and open connections, like a server which
+		 * went away
+		 */
+		void stop() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+			}
+			synchronized (clients) {
+				for (Socket client : clients) {
+					close(client);
+				}
+				clients.clear();
+			}
+			connections.shutdownNow();
+		}
+	}
+
+	private static void close(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+		}
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,95 @@
+package com.testcase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.easygis.map.TileKey;
+import com.easygis.util.LongLruCache;
+
+public class LongLruCacheTest extends TestCase {
+
+	private List<Long> evicted;
+
+	private LongLruCache<String> cache;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		evicted = new ArrayList<Long>();
+		cache = new LongLruCache<String>(3, 4) {
+
+			@Override
+			protected void entryRemoved(boolean evict, long key,
+					String oldValue, String newValue) {
+				if (evict) {
+					evicted.add(key);
+				}
+			}
+
+		};
+	}
+
+	public void testEvictEldest() {
+		cache.put(1, "a");
+		cache.put(2, "b");
+		cache.put(3, "c");
+		assertEquals("a", cache.get(1));
+		cache.put(4, "d");
+		assertEquals(1, evicted.size());
+		assertEquals(2L, (long) evicted.get(0));
+		assertNull(cache.get(2));
+		assertEquals("a", cache.get(1));
+		assertEquals(3, cache.size());
+	}
+
+	public void testReplaceAndRemove() {
+		cache.put(1, "a");
+		assertEquals("a", cache.put(1, "b"));
+		assertEquals(1, cache.count());
+		assertEquals("b", cache.remove(1));
+		assertNull(cache.get(1));
+		assertEquals(0, cache.size());
+		assertTrue(evicted.isEmpty());
+	}
+
+	public void testManyKeys() {
+		LongLruCache<Long> big = new LongLruCache<Long>(1000);
+		for (int i = 0; i < 5000; i++) {
+			long key = TileKey.pack(i % 97, i, i % 19);
+			big.put(key, key);
+		}
+		assertEquals(1000, big.count());
+		for (int i = 4000; i < 5000; i++) {
+			long key = TileKey.pack(i % 97, i, i % 19);
+			assertEquals(key, (long) big.get(key));
+		}
+		for (int i = 0; i < 4000; i++) {
+			assertNull(big.peek(TileKey.pack(i % 97, i, i % 19)));
+		}
+		big.evictAll();
+		assertEquals(0, big.count());
+	}
+
+	public void testPinnedEntriesKept() {
+		LongLruCache<String> pinned = new LongLruCache<String>(2) {
+
+			@Override
+			protected boolean isEvictable(long key, String value) {
+				return !value.startsWith("pin");
+			}
+		};
+		pinned.put(1, "pin1");
+		pinned.put(2, "b");
+		pinned.put(3, "c");
+		assertEquals("pin1", pinned.peek(1));
+		assertNull(pinned.peek(2));
+		pinned.put(4, "pin4");
+		pinned.put(5, "pin5");
+		assertEquals(3, pinned.count());
+		pinned.trimToSize(-1);
+		assertEquals(3, pinned.count());
+		pinned.evictAll();
+		assertEquals(0, pinned.count());
+	}
+}
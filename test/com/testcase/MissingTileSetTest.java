@@ -0,0 +1,58 @@
+package com.testcase;
+
+import junit.framework.TestCase;
+
+import com.easygis.map.service.MissingTileSet;
+
+public class MissingTileSetTest extends TestCase {
+
+	private MissingTileSet missing;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		missing = new MissingTileSet(2);
+	}
+
+	public void testAcrossPageBoundary() {
+		missing.add(63, 63, 10);
+		missing.add(64, 64, 10);
+		assertTrue(missing.contains(63, 63, 10));
+		assertTrue(missing.contains(64, 64, 10));
+		// Same bits of neighbour pages and other zoom are not set
+		assertFalse(missing.contains(63, 64, 10));
+		assertFalse(missing.contains(64, 63, 10));
+		assertFalse(missing.contains(63, 63, 11));
+		assertEquals(2, missing.pageCount());
+		assertEquals(2, missing.hitCount());
+	}
+
+	public void testInvalidate() {
+		missing.add(5, 6, 3);
+		missing.add(5, 7, 3);
+		missing.invalidate(5, 6, 3);
+		assertFalse(missing.contains(5, 6, 3));
+		assertTrue(missing.contains(5, 7, 3));
+
+		missing.add(100, 100, 4);
+		missing.invalidateZoom(3);
+		assertFalse(missing.contains(5, 7, 3));
+		assertTrue(missing.contains(100, 100, 4));
+		assertEquals(1, missing.pageCount());
+
+		missing.invalidateAll();
+		assertFalse(missing.contains(100, 100, 4));
+		assertEquals(0, missing.pageCount());
+	}
+
+	public void testPageEviction() {
+		missing.add(0, 0, 8);
+		missing.add(0, 64, 8);
+		// Touch first page, second one is least recently used
+		assertTrue(missing.contains(0, 0, 8));
+		missing.add(0, 128, 8);
+		assertEquals(2, missing.pageCount());
+		assertTrue(missing.contains(0, 0, 8));
+		assertFalse(missing.contains(0, 64, 8));
+		assertTrue(missing.contains(0, 128, 8));
+	}
+}
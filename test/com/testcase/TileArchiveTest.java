@@ -0,0 +1,81 @@
+package com.testcase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+import com.easygis.map.TileKey;
+import com.easygis.map.service.TileArchive;
+import com.easygis.map.service.TileArchiveBuilder;
+
+public class TileArchiveTest extends TestCase {
+
+	private File root;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		root = File.createTempFile("tiles", "");
+		root.delete();
+		root.mkdirs();
+	}
+
+	protected void tearDown() throws Exception {
+		delete(root);
+		super.tearDown();
+	}
+
+	public void testBuildAndRead() throws IOException {
+		writeTile(3, 2, 5, "z3r2c5");
+		writeTile(3, 2, 4, "z3r2c4");
+		writeTile(1, 0, 1, "z1");
+		writeTile(12, 1000, 2000, "deep");
+		new File(root, "3/readme.txt").createNewFile();
+
+		File archiveFile = new File(root, "tiles.egta");
+		assertEquals(4, TileArchiveBuilder.build(root, "png", archiveFile));
+
+		TileArchive archive = TileArchive.open(archiveFile);
+		assertEquals(4, archive.size());
+		for (int i = 1; i < archive.size(); i++) {
+			assertTrue(archive.keyAt(i - 1) < archive.keyAt(i));
+		}
+		assertEquals("z3r2c5", read(archive, TileKey.pack(2, 5, 3)));
+		assertEquals("z3r2c4", read(archive, TileKey.pack(2, 4, 3)));
+		assertEquals("z1", read(archive, TileKey.pack(0, 1, 1)));
+		assertEquals("deep", read(archive, TileKey.pack(1000, 2000, 12)));
+		assertEquals(-1, archive.find(TileKey.pack(0, 0, 0)));
+		assertEquals(-1, archive.find(TileKey.pack(2, 6, 3)));
+	}
+
+	private String read(TileArchive archive, long key) {
+		int entry = archive.find(key);
+		assertTrue(entry >= 0);
+		ByteBuffer bytes = archive.slice(entry);
+		byte[] data = new byte[bytes.remaining()];
+		bytes.get(data);
+		return new String(data);
+	}
+
+	private void writeTile(int zoom, int row, int col, String content)
+			throws IOException {
+		File dir = new File(root, String.valueOf(zoom));
+		dir.mkdirs();
+		FileOutputStream out = new FileOutputStream(new File(dir, row + "_"
+				+ col + ".png"));
+		out.write(content.getBytes());
+		out.close();
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,107 @@
+package com.testcase;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import junit.framework.TestCase;
+
+import com.easygis.map.MapInfo;
+import com.easygis.map.Tile;
+import com.easygis.map.TileKey;
+import com.easygis.map.service.AbstractTileDataLoader;
+import com.easygis.map.service.TileCacheService;
+import com.easygis.map.service.TileMemoryBudget;
+import com.easygis.map.service.TileMemoryCache;
+import com.easygis.util.LongLruCache;
+
+public class TileCacheServiceTest extends TestCase {
+
+	public void testFairShareRebalance() {
+		TileCacheService service = new TileCacheService(16, 2) {
+
+			@Override
+			protected int sizeOf(Tile tile) {
+				return 1;
+			}
+		};
+		TileMemoryCache main = service.acquire("osm");
+		assertSame(main, service.acquire("osm"));
+		for (int i = 0; i < 12; i++) {
+			main.put(TileKey.pack(i, i, 10), new Tile());
+		}
+		assertEquals(12, main.size());
+		Tile visible = main.get(TileKey.pack(0, 0, 10));
+		assertTrue(visible.acquire());
+
+		// Second source takes its fair share from first one
+		TileMemoryCache satellite = service.acquire("satellite");
+		for (int i = 0; i < 12; i++) {
+			satellite.put(TileKey.pack(i, i, 10), new Tile());
+		}
+		assertEquals(16, service.size());
+		assertEquals(8, main.size());
+		assertEquals(8, satellite.size());
+		assertSame(visible, main.peek(TileKey.pack(0, 0, 10)));
+
+		// Tile in use is never evicted
+		main.trimToSize(-1);
+		assertEquals(1, main.size());
+		visible.release();
+
+		service.release(main);
+		assertEquals(2, service.sourceCount());
+		service.release(main);
+		assertEquals(1, service.sourceCount());
+		assertEquals(0, main.size());
+		assertTrue(visible.isReleased());
+	}
+
+	public void testCacheReferences() {
+		// Tile kept by two caches is not in use
+		Tile shared = new Tile();
+		assertTrue(shared.acquireForCache());
+		assertFalse(shared.isInUse());
+		assertTrue(shared.acquire());
+		assertTrue(shared.isInUse());
+		shared.release();
+		shared.releaseFromCache();
+		assertFalse(shared.isReleased());
+		shared.releaseFromCache();
+		assertTrue(shared.isReleased());
+	}
+
+	public void testLoaderBudgetSizesService() {
+		TileCacheService service = new TileCacheService(16, 2);
+		AbstractTileDataLoader loader = loader();
+		loader.setSharedCache(service, "osm");
+		// Device budget is budget of all sources
+		loader.setMemoryBudget(new TileMemoryBudget(4096, 1024, 2048));
+		assertEquals(4096, service.maxSize());
+
+		// One loader doesn't change cache of all loaders of source
+		TileMemoryCache cache = service.acquire("osm");
+		int overviewSize = cache.protectedMaxSize();
+		loader.setEvictionPolicy(LongLruCache.EvictionPolicy.ARC);
+		loader.setOverviewCacheSize(overviewSize * 2);
+		assertEquals(overviewSize, cache.protectedMaxSize());
+		assertEquals(4096, cache.maxSize());
+		service.release(cache);
+
+		loader.setSharedCache(null, null);
+		assertEquals(0, service.sourceCount());
+	}
+
+	private static AbstractTileDataLoader loader() {
+		MapInfo info = new MapInfo();
+		info.mTileWidth = 256;
+		info.mTileHeight = 256;
+		return new AbstractTileDataLoader(info) {
+
+			@Override
+			protected Bitmap decodeTile(int row, int col, int zoom,
+					BitmapFactory.Options options) {
+				return null;
+			}
+		};
+	}
+}
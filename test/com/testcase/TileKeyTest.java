@@ -0,0 +1,18 @@
+package com.testcase;
+
+import junit.framework.TestCase;
+
+import com.easygis.map.TileKey;
+
+public class TileKeyTest extends TestCase {
+
+	public void testPack() {
+		long key = TileKey.pack(12345, 67890, 18);
+		assertEquals(12345, TileKey.row(key));
+		assertEquals(67890, TileKey.col(key));
+		assertEquals(18, TileKey.zoom(key));
+		assertTrue(TileKey.pack(0, 0, 3) > TileKey.pack(1000, 1000, 2));
+		assertTrue(TileKey.pack(1, 0, 3) > TileKey.pack(0, 1000, 3));
+		assertFalse(TileKey.isValid(-1, 0, 0));
+	}
+}
@@ -0,0 +1,45 @@
+package com.testcase;
+
+import junit.framework.TestCase;
+
+import com.easygis.map.Tile;
+import com.easygis.map.TileKey;
+import com.easygis.map.service.TileMemoryCache;
+
+public class TileMemoryCacheTest extends TestCase {
+
+	public void testProtectedOverviewTiles() {
+		TileMemoryCache tiles = new TileMemoryCache(8, 2);
+		assertEquals(2, tiles.protectedMaxSize());
+		tiles.put(TileKey.pack(0, 0, 1), new Tile());
+		tiles.put(TileKey.pack(1, 1, 2), new Tile());
+		for (int i = 0; i < 100; i++) {
+			tiles.put(TileKey.pack(i, i, 16), new Tile());
+		}
+		assertNotNull(tiles.get(TileKey.pack(0, 0, 1)));
+		assertNotNull(tiles.get(TileKey.pack(1, 1, 2)));
+		assertEquals(8, tiles.size());
+		tiles.trimToSize(3);
+		assertEquals(2, tiles.protectedSize());
+		assertEquals(3, tiles.size());
+		tiles.setProtectedZoom(1);
+		assertNull(tiles.get(TileKey.pack(1, 1, 2)));
+		assertNotNull(tiles.get(TileKey.pack(0, 0, 1)));
+	}
+
+	public void testKeysOverviewFirst() {
+		TileMemoryCache tiles = new TileMemoryCache(8, 2);
+		long overview = TileKey.pack(0, 0, 1);
+		long older = TileKey.pack(1, 1, 16);
+		long newer = TileKey.pack(2, 2, 16);
+		tiles.put(older, new Tile());
+		tiles.put(newer, new Tile());
+		// Overview tile used last is still not most recent working tile
+		tiles.put(overview, new Tile());
+		long[] keys = tiles.keys();
+		assertEquals(3, keys.length);
+		assertEquals(overview, keys[0]);
+		assertEquals(older, keys[1]);
+		assertEquals(newer, keys[2]);
+	}
+}
@@ -0,0 +1,86 @@
+package com.testcase;
+
+import junit.framework.TestCase;
+
+import com.easygis.map.TileKey;
+import com.easygis.map.TileRange;
+import com.easygis.map.service.TileRequestScheduler;
+
+public class TileRequestSchedulerTest extends TestCase {
+
+	private TileRequestScheduler scheduler;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		scheduler = new TileRequestScheduler();
+	}
+
+	public void testRankOrder() {
+		// No viewport yet, keep request order
+		assertEquals(0, scheduler.rank(TileKey.pack(1, 1, 10)));
+
+		scheduler.setViewport(new TileRange(10, 10, 20, 14, 24),
+				new TileRange(10, 40, 40, 44, 44));
+		long target = scheduler.rank(TileKey.pack(44, 44, 10));
+		long center = scheduler.rank(TileKey.pack(12, 22, 10));
+		long corner = scheduler.rank(TileKey.pack(10, 20, 10));
+		long ring = scheduler.rank(TileKey.pack(9, 19, 10));
+		long child = scheduler.rank(TileKey.pack(24, 44, 11));
+		long parent = scheduler.rank(TileKey.pack(6, 11, 9));
+		long far = scheduler.rank(TileKey.pack(48, 88, 12));
+		// Fling target first, then visible tiles by distance to center,
+		// then prefetch ring, then other zoom levels
+		assertTrue(target < center);
+		assertTrue(center < corner);
+		assertTrue(corner < ring);
+		assertTrue(ring < child);
+		assertTrue(ring < parent);
+		assertTrue(child < far);
+		assertTrue(parent < far);
+	}
+
+	public void testStaleAfterViewportMoves() {
+		long visible = TileKey.pack(12, 22, 10);
+		long nearby = TileKey.pack(9, 19, 10);
+		long child = TileKey.pack(24, 44, 11);
+		assertFalse(scheduler.isStale(visible, false));
+
+		scheduler.setViewport(new TileRange(10, 10, 20, 14, 24), null);
+		assertFalse(scheduler.isStale(visible, false));
+		assertTrue(scheduler.isStale(nearby, false));
+		assertFalse(scheduler.isStale(nearby, true));
+		assertFalse(scheduler.isStale(child, true));
+		// More than one zoom level away
+		assertTrue(scheduler.isStale(TileKey.pack(48, 88, 12), true));
+
+		// Pan three tiles right
+		scheduler.setViewport(new TileRange(10, 10, 23, 14, 27),
+				new TileRange(10, 10, 60, 14, 64));
+		assertTrue(scheduler.isStale(visible, false));
+		// Prefetch within margin of two tiles is kept
+		assertFalse(scheduler.isStale(visible, true));
+		assertTrue(scheduler.isStale(nearby, true));
+		assertTrue(scheduler.isStale(TileKey.pack(24, 40, 11), true));
+		// Fling target is never stale
+		assertFalse(scheduler.isStale(TileKey.pack(12, 62, 10), false));
+
+		// Neither are overview tiles
+		long overview = TileKey.pack(1, 2, 2);
+		assertTrue(scheduler.isStale(overview, true));
+		scheduler.setOverviewZoom(2);
+		assertFalse(scheduler.isStale(overview, true));
+		assertFalse(scheduler.isStale(overview, false));
+		assertTrue(scheduler.isStale(TileKey.pack(1, 2, 3), true));
+	}
+
+	public void testGenerationChangesWithViewport() {
+		int generation = scheduler.getGeneration();
+		scheduler.rank(TileKey.pack(1, 1, 10));
+		assertEquals(generation, scheduler.getGeneration());
+		scheduler.setViewport(new TileRange(10, 10, 20, 14, 24), null);
+		assertTrue(generation != scheduler.getGeneration());
+		generation = scheduler.getGeneration();
+		scheduler.setPrefetchMargin(4);
+		assertTrue(generation != scheduler.getGeneration());
+	}
+}
@@ -0,0 +1,68 @@
+package com.testcase;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com.easygis.map.TileKey;
+import com.easygis.map.TileRange;
+import com.easygis.map.service.WarmStartSnapshot;
+
+public class WarmStartSnapshotTest extends TestCase {
+
+	private File file;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		file = File.createTempFile("warm", ".snapshot");
+	}
+
+	protected void tearDown() throws Exception {
+		file.delete();
+		super.tearDown();
+	}
+
+	public void testWriteAndRead() throws IOException {
+		long far = TileKey.pack(100, 100, 5);
+		long corner = TileKey.pack(10, 10, 5);
+		long center = TileKey.pack(11, 11, 5);
+		long overview = TileKey.pack(0, 0, 1);
+		new WarmStartSnapshot(new TileRange(5, 10, 10, 12, 12), new long[] {
+				far, corner, overview, center }).write(file);
+
+		WarmStartSnapshot snapshot = WarmStartSnapshot.read(file);
+		assertEquals(5, snapshot.getViewport().zoom);
+		assertEquals(12, snapshot.getViewport().endCol);
+		assertEquals(4, snapshot.getKeys().length);
+		long[] order = snapshot.preloadOrder();
+		assertEquals(center, order[0]);
+		assertEquals(corner, order[1]);
+		assertEquals(far, order[2]);
+		assertEquals(overview, order[3]);
+
+		new WarmStartSnapshot(null, new long[] { far }).write(file);
+		snapshot = WarmStartSnapshot.read(file);
+		assertNull(snapshot.getViewport());
+		assertEquals(far, snapshot.preloadOrder()[0]);
+	}
+
+	public void testBrokenKeyCount() throws IOException {
+		new WarmStartSnapshot(null, new long[] { 1, 2, 3 }).write(file);
+		assertEquals(3, WarmStartSnapshot.read(file).getKeys().length);
+
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		out.writeInt(0x45475753);
+		out.writeInt(1);
+		out.writeBoolean(false);
+		out.writeInt(Integer.MAX_VALUE);
+		out.close();
+		try {
+			WarmStartSnapshot.read(file);
+			fail("key count larger than file");
+		} catch (IOException e) {
+		}
+	}
+}